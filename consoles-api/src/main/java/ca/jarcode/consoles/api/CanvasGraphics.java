@@ -143,6 +143,62 @@ public interface CanvasGraphics {
 	 */
 	void draw(int x, int y, byte color);
 
+	/**
+	 * Fills a rectangle with the given color
+	 *
+	 * @param x x position
+	 * @param y y position
+	 * @param w width
+	 * @param h height
+	 * @param color color to fill with
+	 */
+	default void fillRect(int x, int y, int w, int h, byte color) {
+		for (int j = y; j < y + h; j++) {
+			for (int i = x; i < x + w; i++) {
+				draw(i, j, color);
+			}
+		}
+	}
+
+	/**
+	 * Copies a row of colors to the given point
+	 *
+	 * @param x x position
+	 * @param y y position
+	 * @param data the colors to copy
+	 * @param offset index of the first color in the data to copy
+	 * @param length amount of colors to copy
+	 */
+	default void blitRow(int x, int y, byte[] data, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			draw(x + i, y, data[offset + i]);
+		}
+	}
+
+	/**
+	 * Copies an area to a new position, offset by (dx, dy). The source and
+	 * destination may overlap.
+	 *
+	 * @param x x position of the area
+	 * @param y y position of the area
+	 * @param w width
+	 * @param h height
+	 * @param dx horizontal distance to copy the area by
+	 * @param dy vertical distance to copy the area by
+	 */
+	default void copyArea(int x, int y, int w, int h, int dx, int dy) {
+		// the area is sampled before drawing anything, in case the source and destination overlap
+		byte[] area = new byte[w * h];
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				area[i + (j * w)] = sample(x + i, y + j);
+			}
+		}
+		for (int j = 0; j < h; j++) {
+			blitRow(x + dx, y + dy + j, area, j * w, w);
+		}
+	}
+
 	/**
 	 * Draws the given section with the background buffer
 	 *
@@ -0,0 +1,33 @@
+package ca.jarcode.consoles.api;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A component that displays an image. The image is converted to map colors when
+ * the component is added to a canvas.
+ */
+public abstract class CanvasImage<T> extends AbstractWrappedComponent<T> {
+
+	public static Builder INTERNAL_BUILDER = null;
+
+	public static CanvasImage create(BufferedImage image) {
+		return create(image, Dithering.NONE);
+	}
+
+	public static CanvasImage create(BufferedImage image, Dithering dithering) {
+		return INTERNAL_BUILDER.build(image, dithering);
+	}
+
+	public interface Builder {
+		CanvasImage build(BufferedImage image, Dithering dithering);
+	}
+
+	protected final BufferedImage image;
+	protected final Dithering dithering;
+
+	public CanvasImage(BufferedImage image, Dithering dithering) {
+		super(image.getWidth(), image.getHeight());
+		this.image = image;
+		this.dithering = dithering;
+	}
+}
@@ -0,0 +1,50 @@
+package ca.jarcode.consoles.api;
+
+/**
+ * Methods of dithering that can be used when converting an image to map colors.
+ */
+public enum Dithering {
+	/**
+	 * Each pixel is converted to the closest map color.
+	 */
+	NONE("none"),
+	/**
+	 * Floyd-Steinberg error diffusion. Produces the most accurate colors, but
+	 * has to convert the image a row at a time.
+	 */
+	FLOYD_STEINBERG("fs"),
+	/**
+	 * Ordered dithering using a Bayer matrix. Each pixel is converted independently,
+	 * which produces a regular pattern instead of noise.
+	 */
+	ORDERED("bayer");
+
+	private final String alias;
+
+	Dithering(String alias) {
+		this.alias = alias;
+	}
+
+	/**
+	 * Returns the short name for this type of dithering
+	 *
+	 * @return the alias for this dithering
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	/**
+	 * Finds the dithering with the given name or alias, ignoring case.
+	 *
+	 * @param name the name or alias of the dithering
+	 * @return the matching dithering, or null if there is none
+	 */
+	public static Dithering fromName(String name) {
+		for (Dithering dithering : values()) {
+			if (dithering.name().equalsIgnoreCase(name.replace('-', '_')) || dithering.alias.equalsIgnoreCase(name))
+				return dithering;
+		}
+		return null;
+	}
+}
@@ -11,6 +11,7 @@ import ca.jarcode.consoles.computer.manual.FunctionManual;
 import ca.jarcode.consoles.computer.manual.ManualManager;
 import ca.jarcode.consoles.internal.ConsoleComponent;
 import ca.jarcode.consoles.internal.ConsoleHandler;
+import ca.jarcode.consoles.internal.ConsoleTextArea;
 import ca.jarcode.consoles.internal.ManagedConsole;
 import ca.jarcode.consoles.api.Position2D;
 import org.bukkit.*;
@@ -337,6 +338,10 @@ public class ComputerHandler implements Listener {
 			if (component instanceof EditorComponent) {
 				((EditorComponent) component).scroll(diff * 2);
 			}
+			// terminals scroll through their scrollback
+			else if (component instanceof ConsoleTextArea) {
+				((ConsoleTextArea) component).scroll(diff * 2);
+			}
 		}
 	}
 
@@ -386,9 +391,9 @@ public class ComputerHandler implements Listener {
 				.forEach(comp -> comp.clickEvent(pos, player.getName()));
 	}
 	public void command(String command, Player player) {
-		List<ManagedConsole> lookingAt = Arrays.asList(
+		Set<ManagedConsole> lookingAt = new HashSet<>(Arrays.asList(
 				ConsoleHandler.getInstance().getConsolesLookingAt(player.getEyeLocation())
-		);
+		));
 		computers.stream().filter(comp -> lookingAt.contains(comp.getConsole()))
 				.forEach(comp -> comp.playerCommand(command, player.getName()));
 	}
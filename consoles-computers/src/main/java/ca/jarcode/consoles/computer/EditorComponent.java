@@ -6,6 +6,7 @@ import ca.jarcode.consoles.computer.filesystem.FSFile;
 import ca.jarcode.consoles.internal.ConsoleGraphics;
 import ca.jarcode.consoles.internal.IndexedConsoleTextArea;
 import ca.jarcode.consoles.internal.InputComponent;
+import ca.jarcode.consoles.internal.TextDocument;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 
@@ -14,7 +15,6 @@ import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.*;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /*
 
@@ -24,6 +24,11 @@ of the indexed text area, all as a component.
 This class contains some of the most confusing code I have ever written.
 I am terribly sorry for anyone else who has to work with this.
 
+The content is kept in the text area's document, so editing only changes the line
+the cursor is on. Only the lines in view are colored and laid out again after a change,
+with a bit of state (whether the view starts inside of a block comment) carried over
+from the lines above it.
+
  */
 public class EditorComponent extends IndexedConsoleTextArea implements InputComponent {
 
@@ -51,17 +56,12 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 		KEYWORD_LENGTH_RANGE = new int[] { least, most };
 	}
 
-	// The editable content of this editor. Used to rebuild the component.
-	private String content;
-
-	// the processed content, which is re-parsed every time the original content changes.
-	private String processedContent;
-
 	// whether to process (color) the editor's contents
 	private boolean processed = true;
 
-	// The top viewable line
-	private int top = 1;
+	// the last line that was checked for block comments, and whether it starts inside of one
+	private int commentLine = 0;
+	private boolean commentState = false;
 	// cursor color (text)
 	private byte cursorColorPrimary = (byte) 118;
 	// secondary cursor color (bg)
@@ -410,16 +410,86 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 		if (row < top)
 			row = top;
 	}
+	// the visible lines are processed every time they are laid out
 	public void process() {
-		if (processed) {
-			processedContent = process(content);
-		}
+		rebuild();
 	}
 	public void rebuild() {
-		setContent(content, false);
+		layout();
 	}
 	public void changed() {
-		setContent(content);
+		layout();
+	}
+	// lays out the visible lines, coloring them first if this editor is processed
+	@Override
+	protected void layout() {
+		List<String> lines = document.lines(top - 1, top - 1 + maxStackSize);
+		if (processed && !lines.isEmpty()) {
+			String text = String.join("\n", lines);
+			// open the block comment that the view starts in, so the processors see it
+			boolean comment = insideComment(top - 1);
+			String result = process(comment ? "--[[" + text : text);
+			if (comment)
+				result = skip(result, 4);
+			lines = Arrays.asList(result.split("\n", -1));
+		}
+		layout(lines, top);
+	}
+	// removes the first characters from processed text, keeping the color codes
+	private static String skip(String text, int amount) {
+		StringBuilder builder = new StringBuilder(text.length());
+		for (int t = 0; t < text.length(); t++) {
+			char c = text.charAt(t);
+			if (c == ChatColor.COLOR_CHAR && t + 1 < text.length()) {
+				builder.append(c).append(text.charAt(t + 1));
+				t++;
+			}
+			else if (amount > 0)
+				amount--;
+			else
+				builder.append(c);
+		}
+		return builder.toString();
+	}
+	// Whether a line (index) starts inside of a block comment. Lines are checked starting from
+	// the last line that was looked up, so scrolling only has to check the lines scrolled past.
+	private boolean insideComment(int index) {
+		if (index < commentLine) {
+			commentLine = 0;
+			commentState = false;
+		}
+		boolean inside = commentState;
+		for (int t = commentLine; t < index && t < document.getLineCount(); t++) {
+			String line = document.getLine(t);
+			int at = 0;
+			while (at < line.length()) {
+				if (inside) {
+					int end = line.indexOf("--]]", at);
+					if (end == -1)
+						break;
+					inside = false;
+					at = end + 4;
+				}
+				else {
+					int start = line.indexOf("--", at);
+					// no comment, or a comment that ends with the line
+					if (start == -1 || !line.startsWith("--[[", start))
+						break;
+					inside = true;
+					at = start + 4;
+				}
+			}
+		}
+		commentLine = index;
+		commentState = inside;
+		return inside;
+	}
+	// called when a line (index) was changed, lines after it might have changed too
+	private void edited(int line) {
+		if (line < commentLine) {
+			commentLine = 0;
+			commentState = false;
+		}
 	}
 	public void setNumberColor(byte numberColor) {
 		this.numberColor = numberColor;
@@ -475,45 +545,33 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 
 	// deletes characters at the cursor
 	public void delete(int amt) {
-		int[] i = {0, 0};
-		List<String> list = new ArrayList<>();
-		section(content, list::add, () -> {}, "\n", false);
-		content = list.stream()
-				// sorry for this terrible, cryptic code. I don't know
-				// what I was thinking when I wrote this.
-				.map(in -> {
-					// most of this is for catching edge cases when deleting characters,
-					// keeping the cursor position valid and performing changes on the
-					// text.
-					if (i[0] != row - 1) {
-						i[0]++;
-						return in;
-					} else {
-						if (character - 1 > in.length())
-							return in;
-						if (character == 1) {
-							i[0]++;
-							i[1]--;
-							return null;
-						}
-						if (in.isEmpty()) {
-							i[0]++;
-							i[1]--;
-							return null;
-						}
-						if (amt >= in.length()) {
-							i[0]++;
-							return "";
-						}
-						String first = in.substring(0, character - (1 + amt));
-						String after = in.substring(character - 1);
-						i[0]++;
-						return first + after;
-					}
-				})
-				.filter(str -> str != null)
-				.collect(Collectors.joining("\n"));
-		row += i[1];
+		int line = row - 1;
+		int shift = 0;
+		// most of this is for catching edge cases when deleting characters,
+		// keeping the cursor position valid and performing changes on the
+		// text.
+		if (line >= 0 && line < document.getLineCount()) {
+			String in = document.getLine(line);
+			if (character - 1 <= in.length()) {
+				// deleting at the start of a line (or an empty line) removes it
+				if (character == 1 || in.isEmpty()) {
+					document.removeLine(line);
+					if (document.getLineCount() == 0)
+						document.insertLine(0, "");
+					shift = -1;
+				}
+				else if (amt >= in.length()) {
+					document.setLine(line, "");
+				}
+				else {
+					String first = in.substring(0, character - (1 + amt));
+					String after = in.substring(character - 1);
+					document.setLine(line, first + after);
+				}
+				edited(line);
+			}
+		}
+		row += shift;
 		character -= amt;
 		if (character <= 0)
 			character = 1;
@@ -521,35 +579,18 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 
 	// inserts text at the cursor
 	public void insert(String str) {
-		if (content.isEmpty()) {
-			content = str;
+		if (document.getLength() == 0) {
+			document.insert(0, 0, str);
+			edited(0);
 			return;
 		}
-		int[] i = {0};
-		List<String> list = new ArrayList<>();
-		section(content, list::add, () -> {}, "\n", false);
-		content = list.stream()
-				.map(in -> {
-					// again, catching a few edge cases
-					if (i[0] != row - 1) {
-						i[0]++;
-						return in;
-					} else {
-						if (character - 1 > in.length()) {
-							i[0]++;
-							return in;
-						}
-						if (character - 1 == in.length()) {
-							i[0]++;
-							return in + str;
-						}
-						String first = in.substring(0, character - 1);
-						String after = in.substring(character - 1);
-						i[0]++;
-						return first + str + after;
-					}
-				})
-				.collect(Collectors.joining("\n"));
+		int line = row - 1;
+		// again, catching a few edge cases
+		if (line >= 0 && line < document.getLineCount()
+				&& character - 1 <= document.getLine(line).length()) {
+			document.insert(line, character - 1, str);
+			edited(line);
+		}
 		if (!"\n".equals(str)) {
 			character += str.length();
 		}
@@ -565,10 +606,14 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 
 	// sets the text content of this editor
 	public void setContent(String content, boolean changed) {
-		this.content = content;
-		if (processed && changed)
-			processedContent = process(content);
-		setText(processed ? processedContent : content, top);
+		if (changed) {
+			// tabs can't be drawn, they are turned into the same four spaces that '-t' inserts. Doing this
+			// here (instead of when the lines are laid out) keeps cursor columns the same as the document's.
+			document = new TextDocument(content.replace("\t", "    "));
+			commentLine = 0;
+			commentState = false;
+		}
+		layout();
 	}
 
 	public void setProcessed(boolean processed) {
@@ -578,8 +623,6 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 		boolean changed = processed != this.processed;
 		this.processed = processed;
 		if (changed && update) {
-			if (processed)
-				process();
 			rebuild();
 		}
 	}
@@ -603,19 +646,19 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 		int k = -1;
 		int c = 0;
 		boolean over = false;
-		for (Map.Entry<Integer, String> entry : stack.entries()) {
+		for (Row entry : rows) {
 			// reset char index on new row
-			if (k != entry.getKey()) {
+			if (k != entry.line) {
 				if (over) {
-					row = entry.getKey() - 1;
+					row = entry.line - 1;
 					character = c + 1;
 					repaint();
 					return;
 				}
 				c = 0;
-				k = entry.getKey();
+				k = entry.line;
 			}
-			String stripped = CColor.strip(entry.getValue());
+			String stripped = CColor.strip(entry.text);
 			int size = stripped.length();
 			// cursor is in this stack row
 			if (x >= OFFSET && y >= (i * textHeight) + H_MARGIN && y < ((i + 1) * textHeight) + H_MARGIN) {
@@ -626,7 +669,7 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 					int cw = font.getChar(arr[t]).getWidth();
 					// match!
 					if (x >= w && x < w + cw) {
-						row = entry.getKey();
+						row = entry.line;
 						character = c + t + 1;
 						repaint();
 						return;
@@ -651,7 +694,7 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 	}
 
 	// we override painting because we need to modify it for the cursor
-	// everything is prepared for us in a synchronized stack, so we don't need
+	// everything is prepared for us in the laid out rows, so we don't need
 	// to split lines or do anything else fancy here.
 	@Override
 	public void paint(CanvasGraphics g, String context) {
@@ -661,16 +704,16 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 		int k = -1;
 		int c = 0;
 		int over = -1;
-		// iterate through the stack
-		for (Map.Entry<Integer, String> entry : stack.entries()) {
+		// iterate through the rows
+		for (Row entry : rows) {
 			// if the line number changed, display it
-			if (k != entry.getKey()) {
+			if (k != entry.line) {
 				g.setFont(numberFont);
-				String str = entry.getKey().toString();
+				String str = String.valueOf(entry.line);
 				g.draw(OFFSET - (numberFont.getWidth(CColor.strip(str)) + MARGIN),
 						(i * textHeight) + H_MARGIN, numberColor, str);
 				g.setFont(font);
-				k = entry.getKey();
+				k = entry.line;
 				if (over >= 0) {
 					for (int t = 0; t < textHeight; t++) {
 						g.draw(OFFSET + over + 2, (i - 1) * textHeight + t + H_MARGIN, cursorColorSecondary);
@@ -680,15 +723,15 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 				}
 			}
 			// if our cursor is on this row, we need to modify our rendering to display it
-			if (entry.getKey() == row) {
-				String stripped = ChatColor.stripColor(entry.getValue());
+			if (entry.line == row) {
+				String stripped = ChatColor.stripColor(entry.text);
 				int size = stripped.length();
 				// render cursor
 				if (c <= character - 1 && size + c > character - 1) {
 					final int fi = c;
 					final int fin = i;
 					lastColor = ((ConsoleGraphics) g).drawFormatted(OFFSET,
-							(i * textHeight) + H_MARGIN, lastColor, entry.getValue(),
+							(i * textHeight) + H_MARGIN, lastColor, entry.text,
 							(index, ch, sprite, px, py) -> {
 								if (index + fi == character - 1) {
 									for (int t = -1; t < sprite.getWidth(); t++) {
@@ -706,7 +749,7 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 				over = character - 1 >= size + c ? font.getWidth(stripped) : -1;
 				c += size;
 			}
-			lastColor = g.drawFormatted(OFFSET, (i * textHeight) + H_MARGIN, lastColor, entry.getValue());
+			lastColor = g.drawFormatted(OFFSET, (i * textHeight) + H_MARGIN, lastColor, entry.text);
 			i++;
 		}
 		if (over >= 0) {
@@ -747,7 +790,7 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 					return;
 				case "q":
 					try (OutputStream out = file.createOutput()) {
-						out.write(content.getBytes(Charset.forName("UTF-8")));
+						out.write(document.toString().getBytes(Charset.forName("UTF-8")));
 					} catch (IOException ignored) {}
 					quit();
 					return;
@@ -772,7 +815,7 @@ public class EditorComponent extends IndexedConsoleTextArea implements InputComp
 					repaint();
 					return;
 				case "D":
-					top = content.split("\n").length - (maxStackSize - 10) + 1;
+					top = document.getLineCount() - (maxStackSize - 10) + 1;
 					if (top < 1)
 						top = 1 ;
 					rebuild();
@@ -1,5 +1,7 @@
 package ca.jarcode.consoles.computer;
 
+import ca.jarcode.consoles.internal.ConsoleFeed;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,72 +12,173 @@ import java.util.List;
 
 Input stream that can produce output streams that write to it.
 
-This needs to be optimized into an n-dimensional array, or something. Having
-the ability to re-allocate memory at specific addressed is something I really
-miss about programming in C.
+Data is kept in a ring buffer, so reading and writing never has to move the rest of the
+buffered data around (this used to copy the entire buffer for every single byte). Streams
+can either be bounded, where writers block until there is room in the buffer, or grow as
+large as they need to. Anything that is written to from the server thread should not be
+bounded, since a program that never reads would end up freezing the server.
+
+Terminals reading from this stream are told when data is written, so they don't have
+to check the stream for data.
 
  */
-public class LinkedStream extends InputStream {
+public class LinkedStream extends InputStream implements ConsoleFeed.FeedSource {
+
+	// capacity used for program output
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	private static final int INITIAL_SIZE = 256;
+
+	private byte[] buffer = new byte[INITIAL_SIZE];
+	// index of the first byte, and the amount of bytes buffered
+	private int head = 0, size = 0;
+	// maximum amount of bytes buffered before writers block, or -1 to grow without a limit
+	private final int capacity;
 
-	byte[] buffer = new byte[0];
 	public volatile boolean end = false;
+	private volatile boolean closed = false;
 	private List<Runnable> onClose = new ArrayList<>();
+	// ran whenever data is written, or the stream ends
+	private volatile Runnable listener = null;
+
+	public LinkedStream() {
+		this(-1);
+	}
+	public LinkedStream(int capacity) {
+		this.capacity = capacity;
+	}
 
 	@Override
-	public int read() throws IOException {
+	public synchronized int read() throws IOException {
+		if (!await())
+			return -1;
+		int b = buffer[head] & 0xFF;
+		head = (head + 1) % buffer.length;
+		size--;
+		notifyAll();
+		return b;
+	}
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		if (!await())
+			return -1;
+		int amount = Math.min(len, size);
+		// the data can wrap around the end of the buffer, so this is at most two copies
+		int first = Math.min(amount, buffer.length - head);
+		System.arraycopy(buffer, head, b, off, first);
+		System.arraycopy(buffer, 0, b, off + first, amount - first);
+		head = (head + amount) % buffer.length;
+		size -= amount;
+		notifyAll();
+		return amount;
+	}
+	// waits for data, returning false if the end of the stream was reached
+	private boolean await() {
 		try {
-			while (!end && buffer.length == 0) {
-				synchronized (this) {
-					this.wait();
-				}
-			}
-			if (end && buffer.length == 0) return -1;
-			synchronized (this) {
-				byte b = buffer[0];
-				advance();
-				return b;
+			while (!end && !closed && size == 0) {
+				wait();
 			}
 		}
 		catch (InterruptedException e) {
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
+			return false;
 		}
-		//TODO: handle this
-		return -1;
+		return size > 0;
 	}
-	public void end() {
+	public synchronized void end() {
 		end = true;
+		notifyAll();
+		signal();
 	}
 	public void add(int b) {
 		synchronized (this) {
 			if (b == - 1) {
 				end();
-				this.notify();
 				return;
 			}
-			byte[] old = buffer.clone();
-			buffer = new byte[old.length + 1];
-			System.arraycopy(old, 0, buffer, 0, old.length);
-			buffer[old.length] = (byte) b;
-			this.notify();
+			if (!reserve(1))
+				return;
+			buffer[(head + size) % buffer.length] = (byte) b;
+			size++;
+			notifyAll();
+			signal();
+		}
+	}
+	public void add(byte[] b, int off, int len) {
+		synchronized (this) {
+			while (len > 0) {
+				if (!reserve(1))
+					return;
+				// write as much as there is room for, and then wait for more room
+				int amount = Math.min(len, buffer.length - size);
+				int tail = (head + size) % buffer.length;
+				int first = Math.min(amount, buffer.length - tail);
+				System.arraycopy(b, off, buffer, tail, first);
+				System.arraycopy(b, off + first, buffer, 0, amount - first);
+				size += amount;
+				off += amount;
+				len -= amount;
+				notifyAll();
+				// tell the reader about the data now, a writer might be about to wait for room
+				signal();
+			}
+		}
+	}
+	// Makes room for at least the given amount of bytes, growing the buffer or waiting for readers.
+	// Returns false if the data should be dropped instead (the stream was closed or interrupted).
+	private boolean reserve(int amount) {
+		while (buffer.length - size < amount) {
+			if (closed)
+				return false;
+			if (capacity == -1 || buffer.length < capacity) {
+				int length = buffer.length * 2;
+				if (capacity != -1)
+					length = Math.min(length, capacity);
+				byte[] larger = new byte[length];
+				int first = Math.min(size, buffer.length - head);
+				System.arraycopy(buffer, head, larger, 0, first);
+				System.arraycopy(buffer, 0, larger, first, size - first);
+				buffer = larger;
+				head = 0;
+			}
+			else try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
 		}
+		return !closed;
+	}
+	private void signal() {
+		Runnable listener = this.listener;
+		if (listener != null)
+			listener.run();
+	}
+	@Override
+	public void setDataListener(Runnable listener) {
+		this.listener = listener;
 	}
 	public void registerCloseListener(Runnable runnable) {
 		onClose.add(runnable);
 	}
 	@Override
 	public synchronized int available() {
-		return buffer.length + (end ? 1 : 0);
+		return size + (end ? 1 : 0);
 	}
 	@Override
 	public void close() {
-		onClose.forEach(Runnable::run);
-	}
-	private void advance() {
 		synchronized (this) {
-			byte[] old = buffer.clone();
-			buffer = new byte[old.length - 1];
-			System.arraycopy(old, 1, buffer, 0, old.length - 1);
+			// wake up anything that is waiting on this stream, since nothing will read from it anymore
+			closed = true;
+			notifyAll();
 		}
+		onClose.forEach(Runnable::run);
 	}
 	public OutputStream createOutput() {
 		return new OutputStream() {
@@ -83,6 +186,12 @@ public class LinkedStream extends InputStream {
 			public void write(int b) throws IOException {
 				add(b);
 			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (off < 0 || len < 0 || len > b.length - off)
+					throw new IndexOutOfBoundsException();
+				add(b, off, len);
+			}
 		};
 	}
 }
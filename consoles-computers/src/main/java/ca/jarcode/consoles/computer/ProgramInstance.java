@@ -39,7 +39,7 @@ public class ProgramInstance implements Runnable {
 	public ProgramInstance(FSProvidedProgram provided, String argument, Computer computer) {
 		stdin = new LinkedStream();
 		out = ((LinkedStream) stdin).createOutput();
-		in = new LinkedStream();
+		in = new LinkedStream(LinkedStream.DEFAULT_CAPACITY);
 		stdout = ((LinkedStream) in).createOutput();
 		this.provided = provided;
 		interpreted = null;
@@ -49,7 +49,7 @@ public class ProgramInstance implements Runnable {
 	public ProgramInstance(SandboxProgram interpreted, String argument, Computer computer) {
 		stdin = new LinkedStream();
 		out = ((LinkedStream) stdin).createOutput();
-		in = new LinkedStream();
+		in = new LinkedStream(LinkedStream.DEFAULT_CAPACITY);
 		stdout = ((LinkedStream) in).createOutput();
 		provided = null;
 		this.interpreted = interpreted;
@@ -69,6 +69,8 @@ public class ProgramInstance implements Runnable {
 	}
 	public void terminate() {
 		terminated = true;
+		// the program could be blocked writing output that nothing is reading
+		((LinkedStream) in).close();
 	}
 	public boolean isTerminated() {
 		return terminated;
@@ -101,13 +101,7 @@ public class LuaFrame {
 			@Arg(name = "c", info = "box color") Integer c) {
 		if (removed) return;
 		byte converted = convert(c);
-		operations.add((g) -> {
-			for (int t = x; t < x + w; t++) {
-				for (int j = y; j < y + h; j++) {
-					g.draw(x, y, converted);
-				}
-			}
-		});
+		operations.add((g) -> g.fillRect(x, y, w, h, converted));
 	}
 	@FunctionManual("Fills the entire frame with the given color")
 	public void fill(
@@ -0,0 +1,113 @@
+package ca.jarcode.consoles.computers.tests;
+
+import ca.jarcode.consoles.computer.LinkedStream;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class LinkedStreamTest {
+
+	// the size of the buffer before it has to grow
+	private static final int INITIAL_SIZE = 256;
+
+	private static byte[] sequence(int start, int length) {
+		byte[] arr = new byte[length];
+		for (int t = 0; t < length; t++) {
+			arr[t] = (byte) (start + t);
+		}
+		return arr;
+	}
+
+	private static void readFully(LinkedStream in, byte[] arr) throws IOException {
+		int at = 0;
+		while (at < arr.length) {
+			int read = in.read(arr, at, arr.length - at);
+			assertTrue("stream ended early", read > 0);
+			at += read;
+		}
+	}
+
+	@Test
+	public void testWrapAround() throws IOException {
+		// bounded to the initial size, so the buffer never grows and has to wrap
+		LinkedStream in = new LinkedStream(INITIAL_SIZE);
+		OutputStream out = in.createOutput();
+		out.write(sequence(0, 200));
+		byte[] first = new byte[150];
+		readFully(in, first);
+		assertArrayEquals(sequence(0, 150), first);
+		// this write goes past the end of the buffer, and continues at the start
+		out.write(sequence(200, 200));
+		assertEquals(250, in.available());
+		byte[] rest = new byte[250];
+		readFully(in, rest);
+		assertArrayEquals(sequence(150, 250), rest);
+		assertEquals(0, in.available());
+	}
+
+	@Test
+	public void testGrowWhileWrapped() throws IOException {
+		LinkedStream in = new LinkedStream();
+		OutputStream out = in.createOutput();
+		out.write(sequence(0, 200));
+		byte[] first = new byte[150];
+		readFully(in, first);
+		// the data wraps around the end of the buffer before it fills up and has to grow
+		out.write(sequence(200, 1000));
+		assertEquals(1050, in.available());
+		byte[] rest = new byte[1050];
+		readFully(in, rest);
+		assertArrayEquals(sequence(150, 1050), rest);
+	}
+
+	@Test(timeout = 5000)
+	public void testCloseReleasesWriter() throws Exception {
+		LinkedStream in = new LinkedStream(INITIAL_SIZE);
+		OutputStream out = in.createOutput();
+		Thread writer = new Thread(() -> {
+			try {
+				// twice as much as the stream can hold, and nothing is reading
+				out.write(sequence(0, INITIAL_SIZE * 2));
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		writer.start();
+		while (in.available() < INITIAL_SIZE) {
+			Thread.sleep(10);
+		}
+		assertTrue("writer should be waiting for room", writer.isAlive());
+		in.close();
+		writer.join(2000);
+		assertFalse("writer is still blocked after the stream was closed", writer.isAlive());
+	}
+
+	@Test
+	public void testReadHighByte() throws IOException {
+		LinkedStream in = new LinkedStream();
+		OutputStream out = in.createOutput();
+		out.write(0xFF);
+		out.write(new byte[] {(byte) 0xFF, 0x7F});
+		// 0xFF is a byte like any other, not the end of the stream
+		assertEquals(255, in.read());
+		assertEquals(255, in.read());
+		assertEquals(0x7F, in.read());
+	}
+
+	@Test(timeout = 5000)
+	public void testEndAfterData() throws IOException {
+		LinkedStream in = new LinkedStream();
+		OutputStream out = in.createOutput();
+		out.write(sequence(0, 10));
+		in.end();
+		// buffered data is still read after the stream ends
+		byte[] arr = new byte[16];
+		assertEquals(10, in.read(arr, 0, arr.length));
+		assertEquals(-1, in.read());
+		assertEquals(-1, in.read(arr, 0, arr.length));
+	}
+}
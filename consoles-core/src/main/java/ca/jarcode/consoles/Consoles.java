@@ -2,8 +2,14 @@ package ca.jarcode.consoles;
 
 import ca.jarcode.consoles.api.impl.InternalFunctions;
 import ca.jarcode.consoles.api.nms.ConsolesNMS;
+import ca.jarcode.consoles.images.AnimatedMapImage;
 import ca.jarcode.consoles.images.ImageConsoleHandler;
 import ca.jarcode.consoles.internal.ConsoleHandler;
+import ca.jarcode.consoles.internal.ConsolePixelBuffer;
+import ca.jarcode.consoles.internal.ConsoleTextArea;
+import ca.jarcode.consoles.internal.FeedPump;
+import ca.jarcode.consoles.internal.MapPainter;
+import ca.jarcode.consoles.internal.PixelStorage;
 import ca.jarcode.consoles.messaging.ConsoleBungeeHook;
 import ca.jarcode.consoles.command.*;
 import ca.jarcode.consoles.util.sync.SyncTaskScheduler;
@@ -50,6 +56,13 @@ public class Consoles extends JavaPlugin {
 		startingId = (short) getConfig().getInt("starting-map-index", startingId);
 		debug = getConfig().getBoolean("debug-mode", debug);
 		interactRange = getConfig().getInt("interact-range", interactRange);
+		ConsolePixelBuffer.storageType = PixelStorage.Type.fromName(getConfig().getString("pixel-storage", "heap"));
+		MapPainter.workerThreads = Math.max(getConfig().getInt("painter-threads", MapPainter.workerThreads), 1);
+		MapPainter.frameRate = Math.max(getConfig().getInt("painter-frame-rate", MapPainter.frameRate), 0);
+		MapPainter.packetBudget = Math.max(getConfig().getInt("packets-per-tick", MapPainter.packetBudget), 0);
+		FeedPump.threads = Math.max(getConfig().getInt("feed-threads", FeedPump.threads), 1);
+		ConsoleTextArea.scrollback = Math.max(getConfig().getInt("text-scrollback", ConsoleTextArea.scrollback), 0);
+		AnimatedMapImage.memoryLimit = Math.max(getConfig().getInt("gif-memory-limit", AnimatedMapImage.memoryLimit), 1);
 
 		// assigns a bunch of API function handles
 		InternalFunctions.assign();
@@ -64,17 +77,22 @@ public class Consoles extends JavaPlugin {
 		);
 
 		register(
-				ConsoleHandler::getInstance, ConsoleBungeeHook::new, SyncTaskScheduler::create,
-				this::getCommandHandler, ImageConsoleHandler::new
+				ConsoleHandler::getInstance, ConsoleHandler.getInstance()::getProximityTracker,
+				ConsoleBungeeHook::new, SyncTaskScheduler::create, this::getCommandHandler, ImageConsoleHandler::new
 		);
 
 		ImageConsoleHandler imageHandler = new ImageConsoleHandler();
 		getServer().getScheduler().scheduleSyncDelayedTask(this, imageHandler::load);
+		// prints terminal output once every tick
+		getServer().getScheduler().scheduleSyncRepeatingTask(this, FeedPump::flush, 1, 1);
 	}
 
 	@Override
 	public void onDisable() {
 		ConsoleHandler.getInstance().getPainter().stop();
+		FeedPump.shutdown();
+		if (ConsolesNMS.packetInternals != null)
+			ConsolesNMS.packetInternals.clearMapPackets();
 		try {
 			SyncTaskScheduler.getInstance().end();
 		}
@@ -0,0 +1,82 @@
+package ca.jarcode.consoles.api.impl;
+
+import ca.jarcode.consoles.api.Canvas;
+import ca.jarcode.consoles.api.CanvasGraphics;
+import ca.jarcode.consoles.api.CanvasImage;
+import ca.jarcode.consoles.api.Dithering;
+import ca.jarcode.consoles.images.ImageComponent;
+import ca.jarcode.consoles.internal.ConsoleRenderer;
+import org.bukkit.entity.Player;
+
+import java.awt.image.BufferedImage;
+
+public class CanvasImageImpl extends CanvasImage<ImageComponent> {
+
+	public CanvasImageImpl(BufferedImage image, Dithering dithering) {
+		super(image, dithering);
+	}
+
+	@Override
+	public ImageComponent build(Canvas renderer) {
+		return new ImageComponent((ConsoleRenderer) renderer, ImageComponent.render(image, dithering));
+	}
+
+	@Override
+	public int getWidth() {
+		return w;
+	}
+
+	@Override
+	public int getHeight() {
+		return h;
+	}
+
+	@Override
+	public boolean isContained() {
+		return underlying == null || underlying.isContained();
+	}
+
+	@Override
+	public byte getBackground() {
+		return underlying == null ? 0 : underlying.getBackground();
+	}
+
+	@Override
+	public void setBackground(byte bg) {
+		if (underlying != null)
+			underlying.setBackground(bg);
+	}
+
+	@Override
+	public boolean enabled() {
+		return underlying != null && underlying.enabled();
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		if (underlying != null)
+			underlying.setEnabled(enabled);
+	}
+
+	@Override
+	public void handleClick(int x, int y, Player player) {
+		if (underlying != null)
+			underlying.handleClick(x, y, player);
+	}
+
+	@Override
+	public void paint(CanvasGraphics g, String context) {
+		if (underlying != null)
+			underlying.paint(g, context);
+	}
+
+	@Override
+	public void prepare(Canvas renderer) {
+		underlying = build(renderer);
+	}
+
+	@Override
+	public Object underlying() {
+		return underlying;
+	}
+}
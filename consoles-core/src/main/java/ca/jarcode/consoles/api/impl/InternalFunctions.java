@@ -16,6 +16,7 @@ public class InternalFunctions {
 		CanvasFeed.INTERNAL_BUILDER = CanvasFeedImpl::new;
 		CanvasTextArea.INTERNAL_BUILDER = CanvasTextAreaImpl::new;
 		CanvasDialog.INTERNAL_BUILDER = CanvasDialogImpl::new;
+		CanvasImage.INTERNAL_BUILDER = CanvasImageImpl::new;
 		InternalHooks.INTERNAL_ALLOC = () -> ConsoleHandler.getInstance().allocate(1);
 		InternalHooks.INTERNAL_FREE = global -> ConsoleHandler.getInstance().free(global, 1);
 		InternalHooks.INTERNAL_TRANSLATE = (player, global) ->
@@ -2,6 +2,7 @@ package ca.jarcode.consoles.command;
 
 import ca.jarcode.consoles.internal.ManagedConsole;
 import ca.jarcode.consoles.internal.ConsoleHandler;
+import ca.jarcode.consoles.internal.FeedPump;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
 
@@ -32,6 +33,14 @@ public class CommandConsole extends CommandBase {
 				count++;
 			}
 		}
+		else if (args[0].equalsIgnoreCase("feeds")) {
+			sender.sendMessage(ChatColor.YELLOW + "Console output:");
+			sender.sendMessage("Feeds waiting to be flushed: " + ChatColor.GRAY + FeedPump.getQueuedFeeds());
+			sender.sendMessage("Queued chunks: " + ChatColor.GRAY + FeedPump.getQueuedOutput());
+			sender.sendMessage("Chunks flushed last tick: " + ChatColor.GRAY + FeedPump.getLastFlushed());
+			sender.sendMessage("Largest queue for a single feed: " + ChatColor.GRAY + FeedPump.getPeakDepth());
+			sender.sendMessage("Total chunks flushed: " + ChatColor.GRAY + FeedPump.getTotalFlushed());
+		}
 		else if (args[0].equalsIgnoreCase("remove") && args.length >= 2) {
 			int i;
 			try {
@@ -58,6 +67,8 @@ public class CommandConsole extends CommandBase {
 				"lists the current consoles");
 		sender.sendMessage(ChatColor.BLUE + "/console remove [index]" + ChatColor.WHITE + " - " +
 				"removes a console at the given index");
+		sender.sendMessage(ChatColor.BLUE + "/console feeds" + ChatColor.WHITE + " - " +
+				"shows how much terminal output is waiting to be printed");
 		sender.sendMessage(ChatColor.RED + "This is a command for developers/debugging");
 	}
 }
@@ -1,5 +1,6 @@
 package ca.jarcode.consoles.command;
 
+import ca.jarcode.consoles.api.Dithering;
 import ca.jarcode.consoles.images.ImageConsole;
 import ca.jarcode.consoles.images.ImageConsoleHandler;
 import org.bukkit.ChatColor;
@@ -52,11 +53,21 @@ public class CommandImage extends CommandBase {
 					return true;
 			}
 
+			// the dithering can be given after the URL
+			int end = args.length;
+			Dithering dithering = null;
+			if (args.length >= 4)
+				dithering = Dithering.fromName(args[args.length - 1]);
+			if (dithering != null)
+				end--;
+			else
+				dithering = Dithering.NONE;
+
 			StringBuilder builder = new StringBuilder();
 
-			for (int t = 2; t < args.length; t++) {
+			for (int t = 2; t < end; t++) {
 				builder.append(args[t]);
-				if (t != args.length - 1) {
+				if (t != end - 1) {
 					builder.append(' ');
 				}
 			}
@@ -71,7 +82,7 @@ public class CommandImage extends CommandBase {
 				sender.sendMessage(ChatColor.YELLOW + "Check the URL(s) you are entering (invalid URL?)");
 				return true;
 			}
-			ImageConsole console = new ImageConsole(url, face, player.getLocation());
+			ImageConsole console = new ImageConsole(url, dithering, face, player.getLocation(), true);
 			console.create();
 		}
 		else if (args[0].equalsIgnoreCase("list")) {
@@ -98,7 +109,7 @@ public class CommandImage extends CommandBase {
 				return true;
 			}
 			ImageConsole console = ImageConsoleHandler.getInstance().getImageConsoles().get(i);
-			console.remove();
+			console.delete();
 			ImageConsoleHandler.getInstance().getImageConsoles().remove(i);
 			ImageConsoleHandler.getInstance().save();
 			sender.sendMessage(ChatColor.YELLOW + "Removed image.");
@@ -107,8 +118,8 @@ public class CommandImage extends CommandBase {
 	}
 	private void printHelp(CommandSender sender) {
 		sender.sendMessage(ChatColor.RED + "Image command usage:");
-		sender.sendMessage(ChatColor.BLUE + "/im create [N/E/S/W] [URL]" + ChatColor.WHITE + " - " +
-				"creates an image at the current position");
+		sender.sendMessage(ChatColor.BLUE + "/im create [N/E/S/W] [URL] (none/fs/bayer)" + ChatColor.WHITE + " - " +
+				"creates an image at the current position, with optional dithering");
 		sender.sendMessage(ChatColor.BLUE + "/im list" + ChatColor.WHITE + " - " +
 				"lists the current images");
 		sender.sendMessage(ChatColor.BLUE + "/im remove [index]" + ChatColor.WHITE + " - " +
@@ -0,0 +1,63 @@
+package ca.jarcode.consoles.images;
+
+import ca.jarcode.consoles.Consoles;
+import ca.jarcode.consoles.api.CanvasGraphics;
+import ca.jarcode.consoles.internal.ConsoleComponent;
+import ca.jarcode.consoles.internal.ConsoleRenderer;
+import org.bukkit.Bukkit;
+
+/*
+
+Component that plays an animated image. The current frame is checked every tick, and
+the console is repainted whenever it changes.
+
+ */
+public class AnimatedImageComponent extends ConsoleComponent {
+
+	private static final int SIZE = PreparedMapImage.SIZE;
+
+	private final AnimatedMapImage image;
+	private volatile int frame = 0;
+	private long start;
+	private int taskId = -1;
+
+	public AnimatedImageComponent(ConsoleRenderer renderer, AnimatedMapImage image) {
+		super(image.getWidth(), image.getHeight(), renderer);
+		this.image = image;
+	}
+	// the painter doesn't need to run faster than the shortest frame in the animation
+	public int getFrameRate() {
+		return Math.max(1, Math.min(20, (int) Math.ceil(1000D / image.getShortestDelay())));
+	}
+	public void start() {
+		if (taskId != -1) return;
+		start = System.currentTimeMillis();
+		taskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(Consoles.getInstance(), this::tick, 1, 1);
+	}
+	public void stop() {
+		if (taskId != -1) {
+			Bukkit.getScheduler().cancelTask(taskId);
+			taskId = -1;
+		}
+	}
+	private void tick() {
+		int next = image.frameAt(System.currentTimeMillis() - start);
+		if (next != frame) {
+			frame = next;
+			getRenderer().repaint();
+		}
+	}
+	@Override
+	public void paint(CanvasGraphics g, String context) {
+		PreparedMapImage current = image.frames[frame];
+		for (int tx = 0; tx < current.tilesWide; tx++) {
+			for (int ty = 0; ty < current.tilesHigh; ty++) {
+				byte[] tile = current.tile(tx, ty);
+				for (int j = 0; j < SIZE; j++) {
+					// frames are always centered (and have a background), so every row is a full copy
+					g.blitRow(tx * SIZE, (ty * SIZE) + j, tile, j * SIZE, SIZE);
+				}
+			}
+		}
+	}
+}
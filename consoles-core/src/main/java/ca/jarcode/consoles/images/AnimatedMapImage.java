@@ -0,0 +1,223 @@
+package ca.jarcode.consoles.images;
+
+import ca.jarcode.consoles.Consoles;
+import ca.jarcode.consoles.api.Dithering;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static ca.jarcode.consoles.Lang.lang;
+
+/*
+
+The frames of an animated image (GIF), already converted to map colors.
+
+Every frame is converted once when the image is loaded. Tiles that are the same as the
+tile in the previous frame share the same array, so an animation where only a small part
+of the image moves doesn't take up much more memory than a single frame. When a frame is
+painted, the pixel buffer only marks the pixels that changed, so only the maps that are
+different from the last frame are sent to players.
+
+ */
+public class AnimatedMapImage {
+
+	// frames past this are dropped, so a huge GIF can't use up all of the server's memory
+	private static final int MAX_FRAMES = 256;
+	// size of a single converted tile, in bytes
+	private static final long TILE_BYTES = PreparedMapImage.SIZE * PreparedMapImage.SIZE;
+
+	// the most memory (in megabytes) a single animation can use while it's loaded, set from the configuration
+	public static int memoryLimit = 128;
+	// browsers treat very short delays as 100ms, most GIFs are made with that in mind
+	private static final int MIN_DELAY = 20;
+	private static final int DEFAULT_DELAY = 100;
+
+	// a single image that doesn't change
+	public static AnimatedMapImage still(PreparedMapImage image) {
+		return new AnimatedMapImage(new PreparedMapImage[] {image}, new int[] {DEFAULT_DELAY});
+	}
+
+	// Decodes an image, returning null if it isn't an animated GIF (or only has a single frame)
+	public static AnimatedMapImage read(byte[] data, Dithering dithering) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext())
+				return null;
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, false);
+				if (!reader.getFormatName().equalsIgnoreCase("gif"))
+					return null;
+				int count = Math.min(reader.getNumImages(true), MAX_FRAMES);
+				if (count <= 1)
+					return null;
+				return read(reader, count, dithering);
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private static AnimatedMapImage read(ImageReader reader, int count, Dithering dithering) throws IOException {
+		int w = reader.getWidth(0), h = reader.getHeight(0);
+		// the size of the entire animation, frames can be smaller than this
+		Node screen = child(reader.getStreamMetadata(), "javax_imageio_gif_stream_1.0", "LogicalScreenDescriptor");
+		if (screen != null) {
+			w = Math.max(w, attribute(screen, "logicalScreenWidth", 0));
+			h = Math.max(h, attribute(screen, "logicalScreenHeight", 0));
+		}
+		long limit = memoryLimit * 1024L * 1024L;
+		// a frame takes up this much memory while it's converted, even if its tiles are shared afterwards
+		long frameBytes = (long) ((w + PreparedMapImage.SIZE - 1) / PreparedMapImage.SIZE)
+				* ((h + PreparedMapImage.SIZE - 1) / PreparedMapImage.SIZE) * TILE_BYTES;
+		// the canvas frames are drawn on to (4 bytes per pixel), plus the first frame
+		long used = (long) w * h * 4;
+		if (used + (frameBytes * 2) > limit) {
+			Consoles.getInstance().getLogger().warning(String.format(lang.getString("image-gif-too-large"),
+					w, h, memoryLimit));
+			return null;
+		}
+		PreparedMapImage[] frames = new PreparedMapImage[count];
+		int[] delays = new int[count];
+		// frames are drawn on top of each other, depending on how the last frame was disposed
+		BufferedImage canvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = canvas.createGraphics();
+		try {
+			for (int t = 0; t < count; t++) {
+				// stop before a frame would go over the limit, and only keep the frames we already have
+				if (used + frameBytes > limit) {
+					Consoles.getInstance().getLogger().warning(String.format(lang.getString("image-gif-truncated"),
+							t, count, memoryLimit));
+					frames = Arrays.copyOf(frames, t);
+					delays = Arrays.copyOf(delays, t);
+					break;
+				}
+				BufferedImage frame = reader.read(t);
+				IIOMetadata metadata = reader.getImageMetadata(t);
+				Node descriptor = child(metadata, "javax_imageio_gif_image_1.0", "ImageDescriptor");
+				Node control = child(metadata, "javax_imageio_gif_image_1.0", "GraphicControlExtension");
+				int x = descriptor == null ? 0 : attribute(descriptor, "imageLeftPosition", 0);
+				int y = descriptor == null ? 0 : attribute(descriptor, "imageTopPosition", 0);
+				Node disposalNode = control == null ? null : control.getAttributes().getNamedItem("disposalMethod");
+				String disposal = disposalNode == null ? "none" : disposalNode.getNodeValue();
+				int delay = control == null ? 0 : attribute(control, "delayTime", 0) * 10;
+				delays[t] = delay < MIN_DELAY ? DEFAULT_DELAY : delay;
+
+				// getData() returns a copy of the canvas
+				Raster previous = disposal.equals("restoreToPrevious") ? canvas.getData() : null;
+				graphics.drawImage(frame, x, y, null);
+
+				PreparedMapImage image = ImageComponent.render(canvas, dithering);
+				image.center();
+				image.background((byte) 84);
+				used += t > 0 ? share(frames[t - 1], image) * TILE_BYTES : image.tiles.length * TILE_BYTES;
+				frames[t] = image;
+
+				if (disposal.equals("restoreToBackgroundColor")) {
+					graphics.setComposite(AlphaComposite.Clear);
+					graphics.fillRect(x, y, frame.getWidth(), frame.getHeight());
+					graphics.setComposite(AlphaComposite.SrcOver);
+				}
+				else if (previous != null) {
+					canvas.setData(previous);
+				}
+			}
+		}
+		finally {
+			graphics.dispose();
+		}
+		return new AnimatedMapImage(frames, delays);
+	}
+
+	// Replaces tiles in the frame that are the same as the last frame with the last frame's tiles,
+	// returning the amount of tiles that couldn't be shared.
+	private static int share(PreparedMapImage last, PreparedMapImage frame) {
+		int unique = 0;
+		for (int t = 0; t < frame.tiles.length; t++) {
+			if (Arrays.equals(last.tiles[t], frame.tiles[t]))
+				frame.tiles[t] = last.tiles[t];
+			else unique++;
+		}
+		return unique;
+	}
+
+	private static Node child(IIOMetadata metadata, String format, String name) {
+		if (metadata == null)
+			return null;
+		Node node = metadata.getAsTree(format).getFirstChild();
+		while (node != null) {
+			if (node.getNodeName().equals(name))
+				return node;
+			node = node.getNextSibling();
+		}
+		return null;
+	}
+
+	private static int attribute(Node node, String name, int def) {
+		Node attribute = node.getAttributes().getNamedItem(name);
+		if (attribute == null)
+			return def;
+		try {
+			return Integer.parseInt(attribute.getNodeValue());
+		}
+		catch (NumberFormatException e) {
+			return def;
+		}
+	}
+
+	final PreparedMapImage[] frames;
+	// how long each frame is shown, in milliseconds
+	final int[] delays;
+	// the time (since the start of the animation) that each frame ends
+	private final long[] ends;
+
+	AnimatedMapImage(PreparedMapImage[] frames, int[] delays) {
+		this.frames = frames;
+		this.delays = delays;
+		ends = new long[frames.length];
+		long time = 0;
+		for (int t = 0; t < frames.length; t++) {
+			time += delays[t];
+			ends[t] = time;
+		}
+	}
+
+	public int getWidth() {
+		return frames[0].getWidth();
+	}
+	public int getHeight() {
+		return frames[0].getHeight();
+	}
+	public int getFrameCount() {
+		return frames.length;
+	}
+	public long getDuration() {
+		return ends[ends.length - 1];
+	}
+	// shortest time a frame is shown for, in milliseconds
+	public int getShortestDelay() {
+		int min = Integer.MAX_VALUE;
+		for (int delay : delays) {
+			min = Math.min(min, delay);
+		}
+		return min;
+	}
+	// the frame that is showing at the given amount of time since the animation started
+	public int frameAt(long time) {
+		int index = Arrays.binarySearch(ends, time % getDuration());
+		// binary search returns (-(insertion point) - 1) for times between the end of two frames,
+		// and the index of a frame if the time is exactly when it ends (which is the next frame)
+		return index < 0 ? -(index + 1) : (index + 1) % frames.length;
+	}
+}
@@ -0,0 +1,126 @@
+package ca.jarcode.consoles.images;
+
+import ca.jarcode.consoles.api.Dithering;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+
+Cache of images that have already been downloaded and converted to map colors.
+
+Image consoles used to download and convert every image again when the server started,
+which was slow with a lot of images and broke images whenever their host was down. Each
+prepared image is now stored in its own file, named after a hash of its URL and dithering,
+and is read straight back into tiles when the console is created.
+
+Files start with a small header (magic, version, width, height), followed by every tile
+in the same order that they are stored in the prepared image.
+
+ */
+class ImageCache {
+
+	private static final int MAGIC = 0x43494D47; // CIMG
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	private static final int TILE_AREA = PreparedMapImage.SIZE * PreparedMapImage.SIZE;
+
+	private final File folder;
+
+	ImageCache(File folder) {
+		this.folder = folder;
+	}
+
+	// returns the cached image, or null if there is no (valid) cached copy
+	PreparedMapImage get(URL url, Dithering dithering) {
+		File file = file(url, dithering);
+		if (!file.exists())
+			return null;
+		try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			if (!read(channel, header) || header.getInt() != MAGIC || header.getInt() != VERSION)
+				return null;
+			int w = header.getInt(), h = header.getInt();
+			long tiles = (long) ((w + PreparedMapImage.SIZE - 1) / PreparedMapImage.SIZE)
+					* ((h + PreparedMapImage.SIZE - 1) / PreparedMapImage.SIZE);
+			// check the size before allocating anything
+			if (w <= 0 || h <= 0 || channel.size() - HEADER_SIZE != tiles * TILE_AREA)
+				return null;
+			PreparedMapImage image = new PreparedMapImage(w, h);
+			// tiles are read directly into the image's arrays
+			for (byte[] tile : image.tiles) {
+				if (!read(channel, ByteBuffer.wrap(tile)))
+					return null;
+			}
+			return image;
+		}
+		catch (IOException | IllegalArgumentException e) {
+			// corrupt or unreadable, the image will be downloaded again
+			return null;
+		}
+	}
+
+	// fills the buffer from the channel, returning false if the file ends first
+	private static boolean read(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) == -1)
+				return false;
+		}
+		buffer.flip();
+		return true;
+	}
+
+	void put(URL url, Dithering dithering, PreparedMapImage image) throws IOException {
+		if (!folder.exists() && !folder.mkdirs())
+			throw new IOException("could not create image cache folder: " + folder.getAbsolutePath());
+		File file = file(url, dithering);
+		// write to a temporary file first, so a crash can't leave a partially written image behind
+		File temp = new File(folder, file.getName() + ".tmp");
+		try (RandomAccessFile out = new RandomAccessFile(temp, "rw"); FileChannel channel = out.getChannel()) {
+			out.setLength(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(image.w).putInt(image.h);
+			header.flip();
+			channel.write(header);
+			for (byte[] tile : image.tiles) {
+				channel.write(ByteBuffer.wrap(tile));
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	void remove(URL url, Dithering dithering) {
+		File file = file(url, dithering);
+		if (file.exists() && !file.delete())
+			file.deleteOnExit();
+	}
+
+	private File file(URL url, Dithering dithering) {
+		return new File(folder, hash(url.toString() + '\n' + dithering.name()) + ".bin");
+	}
+
+	private static String hash(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			StringBuilder builder = new StringBuilder();
+			for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+				builder.append(String.format("%02x", b));
+			}
+			return builder.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every java platform is required to support SHA-1
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -3,12 +3,15 @@ package ca.jarcode.consoles.images;
 import ca.jarcode.consoles.internal.ConsoleComponent;
 import ca.jarcode.consoles.internal.ConsoleRenderer;
 import ca.jarcode.consoles.api.CanvasGraphics;
+import ca.jarcode.consoles.api.Dithering;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /*
 
@@ -20,6 +23,27 @@ public class ImageComponent extends ConsoleComponent {
 
 	public static final int[] MAPPINGS = new int[144];
 
+	private static final int SIZE = PreparedMapImage.SIZE;
+
+	// 8x8 Bayer matrix, scaled to offsets between -16 and 15
+	private static final int[] BAYER = new int[64];
+
+	static {
+		int[] matrix = {
+				0, 32, 8, 40, 2, 34, 10, 42,
+				48, 16, 56, 24, 50, 18, 58, 26,
+				12, 44, 4, 36, 14, 46, 6, 38,
+				60, 28, 52, 20, 62, 30, 54, 22,
+				3, 35, 11, 43, 1, 33, 9, 41,
+				51, 19, 59, 27, 49, 17, 57, 25,
+				15, 47, 7, 39, 13, 45, 5, 37,
+				63, 31, 55, 23, 61, 29, 53, 21
+		};
+		for (int t = 0; t < 64; t++) {
+			BAYER[t] = (matrix[t] >> 1) - 16;
+		}
+	}
+
 	private static int gray(int v) {
 		return color(v, v, v);
 	}
@@ -29,80 +53,138 @@ public class ImageComponent extends ConsoleComponent {
 	private static int color(int r, int g, int b) {
 		return new Color(r, g, b, 0).getRGB();
 	}
-	// sample the pixel at x, y and return the best map pixel id for the color
-	private static byte sample(int x, int y, BufferedImage image) {
-		int color = image.getRGB(x, y);
-		int r = (color >> 16) & 0xFF;
-		int g = (color >> 8) & 0xFF;
-		int b = color & 0xFF;
-		// if 100% transparent pixel, return 0 (transparent)
-		if ((color >> 24) == 0x00) {
-			return 0;
+	// can be used to render the image off-thread
+	public static PreparedMapImage render(BufferedImage image) {
+		return render(image, Dithering.NONE);
+	}
+	public static PreparedMapImage render(BufferedImage image, Dithering dithering) {
+		PreparedMapImage prepared = new PreparedMapImage(image.getWidth(), image.getHeight());
+		if (dithering == Dithering.FLOYD_STEINBERG) {
+			// the error from each pixel carries over to the next ones, so this has to be done in order
+			renderDiffused(image, prepared);
+		}
+		else {
+			// every pixel is converted independently, so the image is split into
+			// map tiles which are converted in parallel.
+			boolean ordered = dithering == Dithering.ORDERED;
+			IntStream.range(0, prepared.tilesWide * prepared.tilesHigh).parallel().forEach(index -> {
+				int tx = index / prepared.tilesHigh, ty = index % prepared.tilesHigh;
+				render(image, prepared.tile(tx, ty), tx * SIZE, ty * SIZE, ordered);
+			});
 		}
-		byte best = 0;
-		double bd = Double.MAX_VALUE;
-		for (int k = 0; k < MAPPINGS.length; k++) {
-			int c = MAPPINGS[k];
-			if (c != 0) {
-				int kr = (c >> 16) & 0xFF;
-				int kg = (c >> 8) & 0xFF;
-				int kb = c & 0xFF;
-				double kd = getDistance(r, g, b, kr, kg, kb);
-				if (bd > kd) {
-					bd = kd;
-					// handle overflow
-					best = (byte) (k < 128 ? k : -129 + (k - 127));
+		return prepared;
+	}
+	// converts the part of the image covered by a single tile
+	private static void render(BufferedImage image, byte[] tile, int x, int y, boolean ordered) {
+		int w = Math.min(SIZE, image.getWidth() - x);
+		int h = Math.min(SIZE, image.getHeight() - y);
+		// read the image a row at a time, instead of a pixel at a time
+		int[] row = new int[w];
+		for (int j = 0; j < h; j++) {
+			image.getRGB(x, y + j, w, 1, row, 0, w);
+			for (int i = 0; i < w; i++) {
+				int color = row[i];
+				if (!ordered || (color >>> 24) == 0) {
+					tile[i + (j * SIZE)] = MapColorTable.lookup(color);
+				}
+				else {
+					// tiles are aligned to a multiple of the matrix size, so the local coordinates work here
+					int offset = BAYER[((j & 7) << 3) | (i & 7)];
+					tile[i + (j * SIZE)] = MapColorTable.lookup(
+							clamp(((color >> 16) & 0xFF) + offset),
+							clamp(((color >> 8) & 0xFF) + offset),
+							clamp((color & 0xFF) + offset));
 				}
-				// exact color match!
-				if (bd == 0)
-					break;
 			}
 		}
-		return best;
-	}
-	// extracted & modified from spigot source
-	private static double getDistance(int r1, int g1, int b1, int r2, int g2, int b2) {
-		double mean = (r1 + r2) / 2.0;
-		double r = r1 - r2;
-		double g = g1 - g2;
-		int b = b1 - b2;
-		double weightR = 2 + mean / 256.0;
-		double weightG = 4.0;
-		double weightB = 2 + (255 - mean) / 256.0;
-		return weightR * r * r + weightG * g * g + weightB * b * b;
 	}
-	// can be used to render the image off-thread
-	public static PreparedMapImage render(BufferedImage image) {
-		byte[][] buffer = new byte[image.getWidth()][image.getHeight()];
-		for (int x = 0; x < image.getWidth(); x++) {
-			for (int y = 0; y < image.getHeight(); y++) {
-				buffer[x][y] = sample(x, y, image);
+	// Floyd-Steinberg dithering, using a serpentine scan (every other row is done right to left).
+	// Errors are kept as integers scaled by 16, for the current and next row.
+	private static void renderDiffused(BufferedImage image, PreparedMapImage prepared) {
+		int w = image.getWidth(), h = image.getHeight();
+		int[] row = new int[w];
+		// padded by a pixel on each side so the edges don't need to be checked
+		int[] current = new int[(w + 2) * 3], next = new int[(w + 2) * 3];
+		byte[] out = new byte[w];
+		for (int y = 0; y < h; y++) {
+			image.getRGB(0, y, w, 1, row, 0, w);
+			boolean reverse = (y & 1) == 1;
+			int dir = reverse ? -1 : 1;
+			for (int k = 0; k < w; k++) {
+				int x = reverse ? w - 1 - k : k;
+				int color = row[x];
+				int e = (x + 1) * 3;
+				if ((color >>> 24) == 0) {
+					out[x] = 0;
+					continue;
+				}
+				int r = clamp(((color >> 16) & 0xFF) + (current[e] >> 4));
+				int g = clamp(((color >> 8) & 0xFF) + (current[e + 1] >> 4));
+				int b = clamp((color & 0xFF) + (current[e + 2] >> 4));
+				byte mapped = MapColorTable.lookup(r, g, b);
+				out[x] = mapped;
+				int actual = MapColorTable.rgb(mapped);
+				diffuse(current, next, e, dir, r - ((actual >> 16) & 0xFF));
+				diffuse(current, next, e + 1, dir, g - ((actual >> 8) & 0xFF));
+				diffuse(current, next, e + 2, dir, b - (actual & 0xFF));
 			}
+			prepared.writeRow(0, y, out, 0, w);
+			int[] swap = current;
+			current = next;
+			next = swap;
+			Arrays.fill(next, 0);
 		}
-		return new PreparedMapImage(buffer, image.getWidth(), image.getHeight());
+	}
+	// spreads the error for a single channel to the neighbouring pixels (7/16, 3/16, 5/16 and 1/16)
+	private static void diffuse(int[] current, int[] next, int e, int dir, int error) {
+		int step = dir * 3;
+		current[e + step] += error * 7;
+		next[e - step] += error * 3;
+		next[e] += error * 5;
+		next[e + step] += error;
+	}
+	private static int clamp(int v) {
+		return v < 0 ? 0 : (v > 255 ? 255 : v);
 	}
 	public static PreparedMapImage render(URL url) throws IOException {
+		return render(url, Dithering.NONE);
+	}
+	public static PreparedMapImage render(URL url, Dithering dithering) throws IOException {
 		BufferedImage image = ImageIO.read(url);
-		return render(image);
+		return render(image, dithering);
 	}
 	public static ImageComponent createFromURL(ConsoleRenderer renderer, URL link) throws IOException {
 		BufferedImage image = ImageIO.read(link);
 		return new ImageComponent(renderer, render(image));
 	}
 
-	private byte[][] buffer;
+	private PreparedMapImage image;
 
 	public ImageComponent(ConsoleRenderer renderer, PreparedMapImage image) {
 		super(image.w, image.h, renderer);
-		buffer = image.data;
+		this.image = image;
 	}
 	@Override
 	public void paint(CanvasGraphics g, String context) {
-		for (int t = 0; t < getWidth(); t++) {
-			for (int j = 0; j < getHeight(); j++) {
-				byte b = buffer[t][j];
-				if (b != 0)
-					g.draw(t, j, b);
+		for (int tx = 0; tx < image.tilesWide; tx++) {
+			for (int ty = 0; ty < image.tilesHigh; ty++) {
+				byte[] tile = image.tile(tx, ty);
+				int w = Math.min(SIZE, getWidth() - (tx * SIZE));
+				int h = Math.min(SIZE, getHeight() - (ty * SIZE));
+				for (int j = 0; j < h; j++) {
+					// copy each run of pixels that aren't transparent
+					int index = j * SIZE, i = 0;
+					while (i < w) {
+						if (tile[index + i] == 0) {
+							i++;
+							continue;
+						}
+						int start = i;
+						while (i < w && tile[index + i] != 0)
+							i++;
+						g.blitRow((tx * SIZE) + start, (ty * SIZE) + j, tile, index + start, i - start);
+					}
+				}
 			}
 		}
 	}
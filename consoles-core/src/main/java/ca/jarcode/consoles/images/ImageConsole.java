@@ -2,13 +2,19 @@ package ca.jarcode.consoles.images;
 
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.api.ConsoleCreateException;
+import ca.jarcode.consoles.api.Dithering;
 import ca.jarcode.consoles.internal.ManagedConsole;
 import ca.jarcode.consoles.api.Position2D;
 import ca.jarcode.consoles.util.sync.SyncTaskScheduler;
+import com.google.common.io.ByteStreams;
 import org.bukkit.Location;
 import org.bukkit.block.BlockFace;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 
 /*
@@ -20,7 +26,10 @@ and programming necessary to render an image onto the canvas
 public class ImageConsole {
 
 	protected URL url;
+	protected Dithering dithering;
 	protected ManagedConsole console;
+	// only set for animated images
+	private AnimatedImageComponent animation;
 	private boolean created = false;
 	private BlockFace face;
 	private Location location;
@@ -29,7 +38,11 @@ public class ImageConsole {
 		this(url, face, location, true);
 	}
 	public ImageConsole(URL url, BlockFace face, Location location, boolean save) {
+		this(url, Dithering.NONE, face, location, save);
+	}
+	public ImageConsole(URL url, Dithering dithering, BlockFace face, Location location, boolean save) {
 		this.url = url;
+		this.dithering = dithering;
 		this.location = location;
 		this.face = face;
 		if (save) {
@@ -37,29 +50,54 @@ public class ImageConsole {
 		}
 	}
 	public void remove() {
+		if (animation != null)
+			animation.stop();
 		if (console != null)
 			console.remove();
 	}
+	// removes the console and its cached image, for when the image is deleted for good
+	public void delete() {
+		remove();
+		ImageConsoleHandler.getInstance().cache.remove(url, dithering);
+	}
 	public URL getUrl() {
 		return url;
 	}
+	public Dithering getDithering() {
+		return dithering;
+	}
 	public void create() {
 		create(true);
 	}
 	public void create(final boolean save) {
 		if (created) return;
 		SyncTaskScheduler.getInstance().runSyncTask(() -> {
-			PreparedMapImage image = null;
+			ImageCache cache = ImageConsoleHandler.getInstance().cache;
+			// images that have already been converted don't need to be downloaded again
+			PreparedMapImage image = cache.get(url, dithering);
+			if (image != null)
+				return AnimatedMapImage.still(image);
 			try {
-				image = ImageComponent.render(url);
+				byte[] data;
+				try (InputStream in = url.openStream()) {
+					data = ByteStreams.toByteArray(in);
+				}
+				AnimatedMapImage animated = AnimatedMapImage.read(data, dithering);
+				if (animated != null)
+					return animated;
+				BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(data));
+				if (decoded == null)
+					throw new IOException("unsupported image format: " + url);
+				image = ImageComponent.render(decoded, dithering);
 				// perform manipulation on the image
 				image.center();
 				image.background((byte) 84);
+				cache.put(url, dithering, image);
 			}
 			catch (IOException e) {
 				e.printStackTrace();
 			}
-			return image;
+			return image == null ? null : AnimatedMapImage.still(image);
 		}, image -> {
 			if (image == null) {
 				remove();
@@ -75,9 +113,20 @@ public class ImageConsole {
 			int h = image.getHeight() % 128 == 0 ? ht : ht + 1;
 			console = new ManagedConsole(w, h, false);
 			console.setType("image");
-			console.putComponent(new Position2D(0, 0), new ImageComponent(console, image));
+			if (image.getFrameCount() > 1) {
+				animation = new AnimatedImageComponent(console, image);
+				console.setFrameRate(animation.getFrameRate());
+				console.putComponent(new Position2D(0, 0), animation);
+			}
+			else {
+				// images hardly ever change, there's no reason to paint them often
+				console.setFrameRate(2);
+				console.putComponent(new Position2D(0, 0), new ImageComponent(console, image.frames[0]));
+			}
 			try {
 				console.create(face, location);
+				if (animation != null)
+					animation.start();
 				if (save)
 					ImageConsoleHandler.getInstance().save();
 			} catch (ConsoleCreateException e) {
@@ -1,5 +1,6 @@
 package ca.jarcode.consoles.images;
 
+import ca.jarcode.consoles.api.Dithering;
 import ca.jarcode.consoles.internal.ConsoleMeta;
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.util.gson.LocationTypeAdapter;
@@ -38,6 +39,7 @@ public class ImageConsoleHandler {
 	List<ImageConsole> imageConsoles = new ArrayList<>();
 
 	private File file;
+	final ImageCache cache;
 	private final Gson gson;
 
 	private final LocationTypeAdapter locationTypeAdapter = new LocationTypeAdapter();
@@ -76,6 +78,7 @@ public class ImageConsoleHandler {
 
 		file = new File(plugin.getDataFolder().getAbsolutePath() +
 				File.separator + "images.json");
+		cache = new ImageCache(new File(plugin.getDataFolder(), "image-cache"));
 		if (!file.exists()) {
 			File folder = plugin.getDataFolder();
 			if (!folder.exists() && !folder.mkdir()) {
@@ -116,6 +119,7 @@ public class ImageConsoleHandler {
 		FileReader reader = null;
 		List<ConsoleMeta> metaList = null;
 		List<String> urls = null;
+		List<String> dithering = null;
 		try {
 			reader = new FileReader(file);
 			JsonParser parser = new JsonParser();
@@ -130,6 +134,10 @@ public class ImageConsoleHandler {
 					Type type = new TypeToken<ArrayList<String>>(){}.getType();
 					urls = gson.fromJson(entry.getValue(), type);
 				}
+				else if (entry.getKey().equals("dithering")) {
+					Type type = new TypeToken<ArrayList<String>>(){}.getType();
+					dithering = gson.fromJson(entry.getValue(), type);
+				}
 			}
 		}
 		catch (IOException e) {
@@ -146,8 +154,13 @@ public class ImageConsoleHandler {
 			for (int t = 0; t < metaList.size(); t++) {
 				Location loc = metaList.get(t).location;
 				BlockFace face = metaList.get(t).face;
+				// images saved before dithering was added won't have an entry
+				Dithering mode = dithering != null && t < dithering.size() ?
+						Dithering.fromName(dithering.get(t)) : null;
+				if (mode == null)
+					mode = Dithering.NONE;
 				try {
-					imageConsoles.add(new ImageConsole(new URL(urls.get(t)), face, loc, false));
+					imageConsoles.add(new ImageConsole(new URL(urls.get(t)), mode, face, loc, false));
 				} catch (MalformedURLException e) {
 					Bukkit.getLogger().severe(lang.getString("image-load-fail"));
 					e.printStackTrace();
@@ -166,10 +179,12 @@ public class ImageConsoleHandler {
 
 		ArrayList<ConsoleMeta> metaList = new ArrayList<>();
 		ArrayList<String> urls = new ArrayList<>();
+		ArrayList<String> dithering = new ArrayList<>();
 
 		for (ImageConsole console : imageConsoles) {
 			metaList.add(console.console.createMeta());
 			urls.add(console.url.toString());
+			dithering.add(console.dithering.name());
 		}
 
 		FileOutputStream out = null;
@@ -177,6 +192,7 @@ public class ImageConsoleHandler {
 			JsonObject obj = new JsonObject();
 			obj.add("consoleData", gson.toJsonTree(metaList, consoleDataType));
 			obj.add("urls", gson.toJsonTree(urls, stringListType));
+			obj.add("dithering", gson.toJsonTree(dithering, stringListType));
 			String bytes = obj.toString();
 			out = new FileOutputStream(file);
 			out.write(bytes.getBytes());
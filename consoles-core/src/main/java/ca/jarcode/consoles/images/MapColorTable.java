@@ -0,0 +1,91 @@
+package ca.jarcode.consoles.images;
+
+/*
+
+Lookup table for the closest map color to any RGB color.
+
+Searching through every map color for each pixel was the slowest part of converting
+images, so the search is done ahead of time for a 64x64x64 grid of colors (the top 6 bits
+of each channel), using the center of each cell. Building the table takes a fraction of
+a second and is only done once, the first time an image is converted.
+
+ */
+class MapColorTable {
+
+	private static final int BITS = 6;
+	private static final int SIZE = 1 << BITS;
+	private static final int SHIFT = 8 - BITS;
+
+	// the table is built when this class is first used
+	private static final byte[] TABLE = build();
+
+	// returns the map color for an ARGB color, or 0 (transparent) for fully transparent colors
+	static byte lookup(int argb) {
+		if ((argb >>> 24) == 0)
+			return 0;
+		return TABLE[index((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF)];
+	}
+
+	static byte lookup(int r, int g, int b) {
+		return TABLE[index(r, g, b)];
+	}
+
+	// returns the RGB value of a map color
+	static int rgb(byte color) {
+		return ImageComponent.MAPPINGS[color & 0xFF];
+	}
+
+	private static int index(int r, int g, int b) {
+		return ((r >> SHIFT) << (BITS * 2)) | ((g >> SHIFT) << BITS) | (b >> SHIFT);
+	}
+
+	private static byte[] build() {
+		byte[] table = new byte[SIZE * SIZE * SIZE];
+		int half = (1 << SHIFT) >> 1;
+		for (int r = 0; r < SIZE; r++) {
+			for (int g = 0; g < SIZE; g++) {
+				for (int b = 0; b < SIZE; b++) {
+					table[(r << (BITS * 2)) | (g << BITS) | b] =
+							nearest((r << SHIFT) + half, (g << SHIFT) + half, (b << SHIFT) + half);
+				}
+			}
+		}
+		return table;
+	}
+
+	// searches every map color for the closest one
+	static byte nearest(int r, int g, int b) {
+		byte best = 0;
+		double bd = Double.MAX_VALUE;
+		for (int k = 0; k < ImageComponent.MAPPINGS.length; k++) {
+			int c = ImageComponent.MAPPINGS[k];
+			if (c != 0) {
+				int kr = (c >> 16) & 0xFF;
+				int kg = (c >> 8) & 0xFF;
+				int kb = c & 0xFF;
+				double kd = getDistance(r, g, b, kr, kg, kb);
+				if (bd > kd) {
+					bd = kd;
+					// handle overflow
+					best = (byte) (k < 128 ? k : -129 + (k - 127));
+				}
+				// exact color match!
+				if (bd == 0)
+					break;
+			}
+		}
+		return best;
+	}
+
+	// extracted & modified from spigot source
+	private static double getDistance(int r1, int g1, int b1, int r2, int g2, int b2) {
+		double mean = (r1 + r2) / 2.0;
+		double r = r1 - r2;
+		double g = g1 - g2;
+		int b = b1 - b2;
+		double weightR = 2 + mean / 256.0;
+		double weightG = 4.0;
+		double weightB = 2 + (255 - mean) / 256.0;
+		return weightR * r * r + weightG * g * g + weightB * b * b;
+	}
+}
@@ -4,16 +4,25 @@ package ca.jarcode.consoles.images;
 
 Prepared/rendered image that is ready to be displayed on an image component.
 
+The image is stored as map sized (128x128) tiles, in the same layout that the pixel
+buffer for a console uses, so painting the image is a straight copy of each row.
+
  */
 public class PreparedMapImage {
 
-	protected byte[][] data;
+	public static final int SIZE = 128;
+
+	// tiles are indexed by (tx * tilesHigh) + ty, and pixels by x + (y * SIZE)
+	protected byte[][] tiles;
 	protected int w, h;
+	protected int tilesWide, tilesHigh;
 
-	PreparedMapImage(byte[][] data, int w, int h) {
-		this.data = data;
+	PreparedMapImage(int w, int h) {
 		this.w = w;
 		this.h = h;
+		tilesWide = (w + SIZE - 1) / SIZE;
+		tilesHigh = (h + SIZE - 1) / SIZE;
+		tiles = new byte[tilesWide * tilesHigh][SIZE * SIZE];
 	}
 
 	public int getWidth() {
@@ -22,29 +31,57 @@ public class PreparedMapImage {
 	public int getHeight() {
 		return h;
 	}
+	byte[] tile(int tx, int ty) {
+		return tiles[(tx * tilesHigh) + ty];
+	}
+	public byte get(int x, int y) {
+		return tile(x / SIZE, y / SIZE)[(x % SIZE) + ((y % SIZE) * SIZE)];
+	}
 	public void center() {
-		byte[][] old = data.clone();
-		if (w % 128 == 0 && h % 128 == 0) return;
-		int nw = w % 128 == 0 ? w : w + (128 - (w % 128));
-		int nh = h % 128 == 0 ? h : h + (128 - (h % 128));
+		if (w % SIZE == 0 && h % SIZE == 0) return;
+		// the image already takes up the same amount of tiles, it just needs to be moved over
+		int nw = tilesWide * SIZE;
+		int nh = tilesHigh * SIZE;
 		int ow = (nw - w) / 2;
 		int oh = (nh - h) / 2;
-		data = new byte[nw][nh];
-		for (int x = ow; x < w + ow; x++) {
-			System.arraycopy(old[x - ow], 0, data[x], oh, h + oh - oh);
+		byte[][] old = tiles;
+		tiles = new byte[old.length][SIZE * SIZE];
+		byte[] row = new byte[w];
+		for (int y = 0; y < h; y++) {
+			copyRow(old, 0, y, row, 0, w, true);
+			copyRow(tiles, ow, y + oh, row, 0, w, false);
 		}
 		w = nw;
 		h = nh;
 	}
 	public void replace(byte target, byte replace) {
-		for (int x = 0; x < w; x++) {
-			for (int y = 0; y < h; y++) {
-				if (data[x][y] == target)
-					data[x][y] = replace;
+		for (byte[] tile : tiles) {
+			for (int t = 0; t < tile.length; t++) {
+				if (tile[t] == target)
+					tile[t] = replace;
 			}
 		}
 	}
 	public void background(byte b) {
 		replace((byte) 0, b);
 	}
+	// copies a row of map colors into the image
+	void writeRow(int x, int y, byte[] row, int offset, int length) {
+		copyRow(tiles, x, y, row, offset, length, false);
+	}
+	// copies a row between a set of tiles and an array, either reading from or writing to the tiles
+	private void copyRow(byte[][] tiles, int x, int y, byte[] row, int offset, int length, boolean read) {
+		int ty = y / SIZE, index = (y % SIZE) * SIZE;
+		int at = x, end = x + length;
+		while (at < end) {
+			int tx = at / SIZE;
+			int tileEnd = Math.min(end, (tx + 1) * SIZE);
+			byte[] tile = tiles[(tx * tilesHigh) + ty];
+			if (read)
+				System.arraycopy(tile, index + (at % SIZE), row, offset + (at - x), tileEnd - at);
+			else
+				System.arraycopy(row, offset + (at - x), tile, index + (at % SIZE), tileEnd - at);
+			at = tileEnd;
+		}
+	}
 }
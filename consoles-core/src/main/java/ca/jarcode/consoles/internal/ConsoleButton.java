@@ -63,16 +63,8 @@ public class ConsoleButton extends ConsoleComponent
 	
 	@Override
 	public void paint(CanvasGraphics g, String context) {
-		for (int i = 0; i < getWidth(); i++) {
-			for (int j = 0; j < getHeight(); j++) {
-				g.draw(i, j, toggle ? activeBackground : background);
-			}
-			g.draw(i, 0, border);
-			g.draw(i, getHeight() - 1, border);
-			if (i == 0 || i == getWidth() - 1) for (int j = 0; j < getHeight(); j++) {
-				g.draw(i, j, border);
-			}
-		}
+		g.fillRect(0, 0, getWidth(), getHeight(), border);
+		g.fillRect(1, 1, getWidth() - 2, getHeight() - 2, toggle ? activeBackground : background);
 		int w = MinecraftFont.Font.getWidth(CColor.strip(text));
 		int h = MinecraftFont.Font.getHeight();
 		g.drawFormatted((getWidth() / 2) - (w / 2), (getHeight() / 2) - (h / 2), text);
@@ -3,7 +3,6 @@ package ca.jarcode.consoles.internal;
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.api.Position2D;
 import ca.jarcode.consoles.api.nms.CommandExecutor;
-import org.bukkit.Bukkit;
 
 import java.io.*;
 import java.nio.charset.Charset;
@@ -11,21 +10,33 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /*
 
 An extension of a normal text area, this has significant changes:
 
-- Reads input from an input stream in a separate thread
+- Reads input from an input stream, through the shared feed pump
 - Writes to either a FeedCreator, or the current output stream (if active)
 
+Input is read in bulk whenever the pump gets to this feed, and is decoded as it comes in.
+Bytes at the end of a read that only make up part of a character are held back until the
+rest of the character arrives, instead of being decoded into garbage.
+
+Decoded text is queued, and the queue is printed by the main thread once every tick
+with a single repaint, no matter how many times the program wrote to its output. The
+queue is limited: once it is full, the pump stops reading from the feed until the main
+thread has flushed it, so a program printing in a loop blocks on its (bounded) output
+stream instead of burying the main thread in text.
+
 This class is relatively abstract, while this is the superclass of Terminal,
 you can use this for steaming any I/O.
 
  */
 @SuppressWarnings("unused")
-public class ConsoleFeed extends ConsoleTextArea implements Runnable {
+public class ConsoleFeed extends ConsoleTextArea {
 
 	public static final FeedEncoder UTF_ENCODER = new FeedEncoder() {
 
@@ -39,17 +50,38 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 		public byte[] encode(String text) {
 			return text.getBytes(charset);
 		}
+		@Override
+		public int complete(byte[] b, int len) {
+			// find the start of the last character, UTF-8 characters are at most 4 bytes long
+			for (int t = len - 1; t >= 0 && t >= len - 4; t--) {
+				int v = b[t] & 0xFF;
+				// continuation byte
+				if ((v & 0xC0) == 0x80)
+					continue;
+				int size = v >= 0xF0 ? 4 : v >= 0xE0 ? 3 : v >= 0xC0 ? 2 : 1;
+				return t + size > len ? t : len;
+			}
+			// only continuation bytes, which can't be decoded no matter what comes next
+			return len;
+		}
 	};
 
+	// maximum amount of bytes read from a feed each time the pump handles it, so a program
+	// that writes a lot of output can't hold up other feeds
+	private static final int MAX_READ = 64 * 1024;
+	// maximum amount of characters waiting to be printed by the main thread before the pump
+	// stops reading from this feed
+	private static final int MAX_QUEUED = 16 * 1024;
+
 	protected InputStream in = null;
 	protected OutputStream out = null;
 
-	private Thread feed;
-
-	// whether the IO thread is running
+	// whether the feed is running
 	protected volatile boolean running = false;
-	// whether the IO thread has ended
+	// whether the feed has ended
 	protected volatile boolean ended = true;
+	// whether this feed is queued in the pump
+	final AtomicBoolean queued = new AtomicBoolean(false);
 	private Exception exception = null;
 	protected final Object LOCK = new Object();
 	protected FeedEncoder encoder = null;
@@ -60,13 +92,25 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 	private FeedCreator creator = null;
 	protected boolean initialized = false;
 
-	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	// bytes read from the input stream, starting with any bytes left over from an unfinished character
+	private final byte[] buffer = new byte[4096];
+	private int partial = 0;
 	protected ByteArrayOutputStream outgoing = new ByteArrayOutputStream();
 
 	private final Object TASK_LOCK = new Object();
-	private final List<Integer> tasks = new ArrayList<>();
+	// text waiting to be printed by the main thread, and the amount of chunks in the queue
+	private final ConcurrentLinkedQueue<String> output = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger depth = new AtomicInteger(0);
+	// amount of characters in the queue
+	private final AtomicInteger queuedChars = new AtomicInteger(0);
+	// whether the pump stopped reading because the queue is full, the next flush signals the pump again
+	private final AtomicBoolean held = new AtomicBoolean(false);
+	// whether this feed is waiting for its output to be flushed
+	final AtomicBoolean flushQueued = new AtomicBoolean(false);
 
 	private final List<Runnable> afterTasks = new ArrayList<>();
+	// whether the after tasks still have to be ran for the feed that last ended, guarded by the task lock
+	private boolean finishing = false;
 
 	public ConsoleFeed(ConsoleRenderer renderer) {
 		super(renderer.getWidth() - 4, renderer.getHeight() - 4, renderer);
@@ -100,22 +144,20 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 	public void startFeed() {
 		if (running && !ended)
 			throw new IllegalStateException("Feed is already set up to IO");
-		running = true;
-		ended = false;
-		feed = new Thread(this);
-		feed.setName("Minecraft Console IO Feed");
-		feed.setDaemon(true);
-		feed.setPriority(Thread.MIN_PRIORITY);
-		feed.start();
+		synchronized (LOCK) {
+			partial = 0;
+			running = true;
+			ended = false;
+		}
+		FeedPump.getInstance().register(this, in);
 	}
 	public void setShowPrompt(boolean show) {
 		showPrompt = show;
 	}
-	public Thread getFeedThread() {
-		return feed;
-	}
 	public void stop() {
 		running = false;
+		if (!ended)
+			FeedPump.getInstance().signal(this);
 	}
 	public boolean hasEnded() {
 		return ended;
@@ -156,6 +198,7 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 					byte[] arr = encoder.encode(string + "\n");
 					outgoing.write(arr);
 				}
+				FeedPump.getInstance().signal(this);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -180,82 +223,137 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 		};
 	}
 
-	@Override
-	public void run() {
-		try {
-			while (running) {
-				synchronized (LOCK) {
-					if (outgoing.size() > 0 && out != null) {
-						out.write(outgoing.toByteArray());
-						outgoing = new ByteArrayOutputStream();
+	// Moves data between the streams and the console. Called by the feed pump, never blocks
+	// on the input stream, and ends the feed when the input stream does.
+	void pump() {
+		synchronized (LOCK) {
+			if (ended)
+				return;
+			boolean eof = false, more = false;
+			try {
+				if (outgoing.size() > 0 && out != null) {
+					out.write(outgoing.toByteArray());
+					outgoing.reset();
+				}
+				StringBuilder text = new StringBuilder();
+				int total = 0, available;
+				while (running && !backlogged(text.length()) && (available = in.available()) > 0) {
+					if (total >= MAX_READ) {
+						more = true;
+						break;
 					}
-					boolean eof = false;
-					while (in.available() > 0) {
-						int v = in.read();
-						if (v == -1) {
-							eof = true;
-							break;
-						}
-						else
-							buffer.write(v);
+					int read = in.read(buffer, partial, Math.min(available, buffer.length - partial));
+					if (read == -1) {
+						eof = true;
+						break;
 					}
-					if (buffer.size() > 0) {
-						String result = encoder.get(buffer.toByteArray());
+					total += read;
+					int len = partial + read;
+					int complete = encoder.complete(buffer, len);
+					if (complete > 0) {
+						String result = encoder.get(Arrays.copyOf(buffer, complete));
 						if (result != null)
-							writeConsole(result);
-						buffer = new ByteArrayOutputStream();
-					}
-					if (eof) {
-						break;
+							text.append(result);
 					}
+					// keep the start of the unfinished character for the next read
+					partial = len - complete;
+					System.arraycopy(buffer, complete, buffer, 0, partial);
+				}
+				// the stream ended in the middle of a character, decode whatever is left
+				if ((eof || !running) && partial > 0) {
+					String result = encoder.get(Arrays.copyOf(buffer, partial));
+					if (result != null)
+						text.append(result);
+					partial = 0;
 				}
-				Thread.sleep(50);
+				if (text.length() > 0)
+					writeConsole(text.toString());
 			}
-		}
-		catch (Exception e) {
-			synchronized (LOCK) {
+			catch (Exception e) {
 				if (Consoles.debug)
 					e.printStackTrace();
 				exception = e;
+				eof = true;
 			}
+			if (eof || !running)
+				finish();
+			else if (more)
+				FeedPump.getInstance().signal(this);
+		}
+	}
+	private void finish() {
+		FeedPump.getInstance().unregister(this, in);
+		if (prompt != null && showPrompt) {
+			writeConsole("\n" + prompt);
 		}
-		finally {
+		synchronized (TASK_LOCK) {
 			ended = true;
 			running = false;
-			synchronized (LOCK) {
-				if (prompt != null && showPrompt) {
-					writeConsole("\n" + prompt);
-				}
-			}
-			waitFor();
-			Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), () -> {
-				List<Runnable> currentTasks = Arrays.asList(afterTasks.stream().toArray(Runnable[]::new));
-				currentTasks.stream().forEach(Runnable::run);
-				Iterator<Runnable> it = afterTasks.iterator();
-				while (it.hasNext())
-					if (currentTasks.contains(it.next()))
-						it.remove();
-			});
-			synchronized (TASK_LOCK) {
-				TASK_LOCK.notify();
-			}
+			finishing = true;
+			TASK_LOCK.notifyAll();
 		}
+		// the after tasks are ran by the next flush, even if there is no output left
+		FeedPump.queueFlush(this);
+	}
+	private void runAfterTasks() {
+		List<Runnable> currentTasks = Arrays.asList(afterTasks.stream().toArray(Runnable[]::new));
+		currentTasks.stream().forEach(Runnable::run);
+		Iterator<Runnable> it = afterTasks.iterator();
+		while (it.hasNext())
+			if (currentTasks.contains(it.next()))
+				it.remove();
+	}
+	// Whether the queue (plus the text that is about to be queued) is full. If it is, the feed is
+	// held until the next flush.
+	private boolean backlogged(int pending) {
+		if (queuedChars.get() + pending < MAX_QUEUED)
+			return false;
+		held.set(true);
+		// the queue could have been flushed before the flag was set, in which case nothing would signal us
+		if (queuedChars.get() + pending < MAX_QUEUED && held.compareAndSet(true, false))
+			return false;
+		return true;
 	}
 	private void writeConsole(String text) {
-		if (Consoles.getInstance().isEnabled()) {
-			AtomicInteger id = new AtomicInteger(-1);
-			id.set(Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), () -> {
-				this.print(text);
-				repaint();
-				synchronized (TASK_LOCK) {
-					tasks.remove((Integer) id.get());
-					TASK_LOCK.notify();
-				}
-			}));
-			synchronized (TASK_LOCK) {
-				tasks.add(id.get());
-			}
+		output.add(text);
+		queuedChars.addAndGet(text.length());
+		depth.incrementAndGet();
+		FeedPump.queueFlush(this);
+	}
+	// amount of chunks of text waiting to be printed
+	public int getQueuedOutput() {
+		return depth.get();
+	}
+	// Prints all of the queued output, and runs the after tasks if the feed has ended. This
+	// is called from the main thread, and returns the amount of chunks that were printed.
+	int flush() {
+		StringBuilder text = new StringBuilder();
+		int count = 0;
+		String next;
+		while ((next = output.poll()) != null) {
+			text.append(next);
+			count++;
+		}
+		if (count > 0) {
+			depth.addAndGet(-count);
+			queuedChars.addAndGet(-text.length());
+			print(text.toString());
+			repaint();
 		}
+		// there is room in the queue again, continue reading from the feed
+		if (held.compareAndSet(true, false))
+			FeedPump.getInstance().signal(this);
+		boolean after;
+		synchronized (TASK_LOCK) {
+			after = finishing && ended && output.isEmpty();
+			if (after)
+				finishing = false;
+			TASK_LOCK.notifyAll();
+		}
+		// this was the last output of a feed that has ended
+		if (after)
+			runAfterTasks();
+		return count;
 	}
 
 	// should be used by the main thread instead of waitFor()
@@ -263,12 +361,12 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 		afterTasks.add(task);
 	}
 
-	// should not be called by the main thread, as the tasks themselves
-	// are ran from it.
+	// should not be called by the main thread, as the output is
+	// printed from it.
 	public void waitFor() {
 		synchronized (TASK_LOCK) {
 			try {
-				while (tasks.size() > 0 || !ended) {
+				while (depth.get() > 0 || !ended) {
 					TASK_LOCK.wait();
 				}
 			}
@@ -280,6 +378,15 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 	public interface FeedEncoder {
 		String get(byte[] read);
 		byte[] encode(String text);
+		// returns the amount of bytes at the start of the data that only contain whole characters
+		default int complete(byte[] read, int len) {
+			return len;
+		}
+	}
+	// an input stream that can tell the feed pump when there is data to read
+	public interface FeedSource {
+		// sets the listener to run when data is written or the stream ends, or null to remove it
+		void setDataListener(Runnable listener);
 	}
 	public interface FeedCreator {
 		void from(String input);
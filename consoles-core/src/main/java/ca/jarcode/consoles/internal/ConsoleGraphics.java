@@ -21,15 +21,20 @@ public class ConsoleGraphics implements CanvasGraphics {
 	private final ConsoleRenderer renderer;
 	private final ConsoleComponent component;
 	private final Position2D pos;
+	// pixel data for the context being painted, resolved once by the renderer
+	private final ConsolePixelBuffer.Raster raster;
 
 	private boolean relative = true;
 
 	private MapFont font = MinecraftFont.Font;
+	private GlyphAtlas atlas = GlyphAtlas.of(font);
 
-	ConsoleGraphics(ConsoleRenderer renderer, ConsoleComponent component, Position2D pos) {
+	ConsoleGraphics(ConsoleRenderer renderer, ConsoleComponent component, Position2D pos,
+	                ConsolePixelBuffer.Raster raster) {
 		this.renderer = renderer;
 		this.component = component;
 		this.pos = pos;
+		this.raster = raster;
 	}
 	public ConsoleGraphics subInstance(CanvasComponent component, int x, int y) {
 		return subInstance(component, new Position2D(x, y));
@@ -38,14 +43,14 @@ public class ConsoleGraphics implements CanvasGraphics {
 	@Override
 	public byte sample(int x, int y) {
 		if (!relative)
-			return renderer.getPixelBuffer().get(x, y, renderer.getPaintContext());
+			return raster.get(x, y);
 		else
-			return renderer.getPixelBuffer().get(x + pos.getX(), y + pos.getY(), renderer.getPaintContext());
+			return raster.get(x + pos.getX(), y + pos.getY());
 	}
 
 	public ConsoleGraphics subInstance(CanvasComponent comp, Position2D pos) {
 		return new ConsoleGraphics(renderer, comp instanceof WrappedComponent ?
-				(ConsoleComponent) ((WrappedComponent) comp).underlying() : (ConsoleComponent) comp, pos);
+				(ConsoleComponent) ((WrappedComponent) comp).underlying() : (ConsoleComponent) comp, pos, raster);
 	}
 
 
@@ -161,21 +166,11 @@ public class ConsoleGraphics implements CanvasGraphics {
 			else {
 				if (c == '\u00A7')
 					c = '&';
-				MapFont.CharacterSprite sprite = font.getChar(c);
-				for (int k = 0; k < sprite.getWidth(); k++) {
-					for (int j = 0; j < sprite.getHeight(); j++) {
-						if (sprite.get(j, k)) {
-							if (!relative)
-								renderer.getPixelBuffer().set(k + at + x, j + y, color, renderer.getPaintContext());
-							else
-								renderer.getPixelBuffer().set(k + at + x + pos.getX(), j + y + pos.getY(), color,
-										renderer.getPaintContext());
-						}
-					}
-				}
+				GlyphAtlas.Glyph glyph = atlas.get(c);
+				drawGlyph(glyph, at + x, y, color);
 				if (modifier != null)
-					modifier.paint(charIndex, c, sprite, at + x, y);
-				at += sprite.getWidth() + 1;
+					modifier.paint(charIndex, c, glyph.sprite, at + x, y);
+				at += glyph.width + 1;
 				charIndex++;
 			}
 			i++;
@@ -186,31 +181,56 @@ public class ConsoleGraphics implements CanvasGraphics {
 	@Override
 	public void setFont(MapFont font) {
 		this.font = font;
+		this.atlas = GlyphAtlas.of(font);
 	}
 
 	public final void draw(int x, int y, byte color, String text) {
 		int at = 0;
 		for (char c : text.toCharArray()) {
-			MapFont.CharacterSprite sprite = font.getChar(c);
-			for (int k = 0; k < sprite.getWidth(); k++) {
-				for (int j = 0; j < sprite.getHeight(); j++) {
-					if (sprite.get(j, k)) {
-						if (!relative)
-							renderer.getPixelBuffer().set(k + at + x, j + y, color, renderer.getPaintContext());
-						else
-							renderer.getPixelBuffer().set(k + at + x + pos.getX(), j + y + pos.getY(), color,
-									renderer.getPaintContext());
-					}
-				}
+			GlyphAtlas.Glyph glyph = atlas.get(c);
+			drawGlyph(glyph, at + x, y, color);
+			at += glyph.width + 1;
+		}
+	}
+	// draws a character a row at a time, using the runs of lit pixels from the atlas
+	private void drawGlyph(GlyphAtlas.Glyph glyph, int x, int y, byte color) {
+		if (relative) {
+			x += pos.getX();
+			y += pos.getY();
+		}
+		for (int j = 0; j < glyph.height; j++) {
+			int[] runs = glyph.runs[j];
+			for (int r = 0; r < runs.length; r += 2) {
+				raster.fillRow(x + runs[r], y + j, runs[r + 1], color);
 			}
-			at += sprite.getWidth() + 1;
 		}
 	}
 	public final void draw(int x, int y, byte color) {
 		if (!relative)
-			renderer.getPixelBuffer().set(x, y, color, renderer.getPaintContext());
+			raster.set(x, y, color);
+		else
+			raster.set(x + pos.getX(), y + pos.getY(), color);
+	}
+	@Override
+	public void fillRect(int x, int y, int w, int h, byte color) {
+		if (!relative)
+			raster.fillRect(x, y, w, h, color);
+		else
+			raster.fillRect(x + pos.getX(), y + pos.getY(), w, h, color);
+	}
+	@Override
+	public void blitRow(int x, int y, byte[] data, int offset, int length) {
+		if (!relative)
+			raster.blitRow(x, y, data, offset, length);
+		else
+			raster.blitRow(x + pos.getX(), y + pos.getY(), data, offset, length);
+	}
+	@Override
+	public void copyArea(int x, int y, int w, int h, int dx, int dy) {
+		if (!relative)
+			raster.copyArea(x, y, w, h, dx, dy);
 		else
-			renderer.getPixelBuffer().set(x + pos.getX(), y + pos.getY(), color, renderer.getPaintContext());
+			raster.copyArea(x + pos.getX(), y + pos.getY(), w, h, dx, dy);
 	}
 	public void drawBackground() {
 		if (!component.isContained())
@@ -1,8 +1,6 @@
 package ca.jarcode.consoles.internal;
 
 import ca.jarcode.consoles.api.nms.ConsolesNMS;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.messaging.ConsoleBungeeHook;
 import org.bukkit.*;
@@ -28,6 +26,7 @@ import org.bukkit.plugin.Plugin;
 
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -88,16 +87,22 @@ public class ConsoleHandler implements Listener {
 
 	// thread-safe array list
 	CopyOnWriteArrayList<ManagedConsole> consoles = new CopyOnWriteArrayList<>();
+	// created consoles, indexed by the chunks they are in
+	final ConsoleIndex<ManagedConsole> index = new ConsoleIndex<>();
+	// item frame entity ids -> console
+	final EntityIndex entities = new EntityIndex();
 	// we lock allocation code because it has to be accessed from the painting thread to send packets
 	private final Object ALLOCATION_LOCK = new Object();
 	// this holds all indexes of the maps that the server refers to
-	private ArrayList<Short> defaultAllocation = new ArrayList<>();
+	private final MapIdAllocator defaultAllocation = new MapIdAllocator();
 	// this is the index mappings for every client
-	private Map<String, BiMap<Short, Short>> allocations = new HashMap<>();
+	private final Map<String, ContextTable> allocations = new ConcurrentHashMap<>();
 	// the painter (Runnable) ran in separate thread that handles requests/paints
 	private final MapPainter painter = new MapPainter();
 	// the single thread used for painting
 	private final Thread paintThread = new Thread(painter);
+	// sends updates to players that walk into range of consoles
+	private final ProximityTracker tracker = new ProximityTracker();
 
 	public final List<RawInteractionListener> interactionHooks = new ArrayList<>();
 
@@ -132,16 +137,13 @@ public class ConsoleHandler implements Listener {
 		this.hook = hook;
 	}
 
+	// called for every map and metadata packet, this only locks if the context doesn't have a table yet
 	public short translateIndex(String context, short global) {
-		synchronized (ALLOCATION_LOCK) {
-			if (!getIndexTable(context).containsKey(global))
-				return -1;
-			else return grabIndex(context, global);
+		ContextTable table = allocations.get(context);
+		if (table == null) synchronized (ALLOCATION_LOCK) {
+			table = getIndexTable(context);
 		}
-	}
-	private short grabIndex(String context, short global) {
-		Short s = allocations.containsKey(context) ? allocations.get(context).get(global) : Short.valueOf((short) 0);
-		return s == null ? 0 : s;
+		return table.translate(global);
 	}
 	// this takes all the currently allocated values for this context and
 	// remaps them to -ive keys, and re-allocates all the global values to
@@ -154,25 +156,17 @@ public class ConsoleHandler implements Listener {
 		if (!Thread.holdsLock(ALLOCATION_LOCK)) synchronized (ALLOCATION_LOCK) {
 			return allocateNew(context);
 		}
-		Map<Short, Short> target = getIndexTable(context);
-		Map<Short, Short> old = HashBiMap.create();
-		for (Map.Entry<Short, Short> entry : target.entrySet()) {
-			for (short t = -1; ; t--) {
-				if (!old.containsKey(t)) {
-					old.put(t, entry.getValue());
-					break;
-				}
-			}
-		}
-		target.clear();
-		for (Map.Entry<Short, Short> entry : old.entrySet()) {
-			target.put(entry.getKey(), entry.getValue());
+		ContextTable target = getIndexTable(context);
+		// the remapped ids are published all at once, readers keep seeing the old ids until then
+		target.begin();
+		try {
+			target.reserveAll();
+			return defaultAllocation.ids().allMatch(index ->
+					target.map((short) index, Consoles.startingId) != Short.MAX_VALUE);
 		}
-		for (short index : defaultAllocation) {
-			short to = mapIndex(context, index);
-			if (to == Short.MAX_VALUE) return false;
+		finally {
+			target.end();
 		}
-		return true;
 	}
 	// this is used to add new indexes from created maps
 	// if the global value already exists, nothing will happen,
@@ -181,21 +175,11 @@ public class ConsoleHandler implements Listener {
 		if (!Thread.holdsLock(ALLOCATION_LOCK)) synchronized (ALLOCATION_LOCK) {
 			return mapIndex(context, global);
 		}
-		Map<Short, Short> target = getIndexTable(context);
-		if (target.containsKey(global)) return target.get(global);
-		short result;
-		for (short t = Consoles.startingId;; t++) {
-			if (!target.containsValue(t)) {
-				target.put(global, t);
-				result = t;
-				break;
-			}
-		}
-		return result;
+		return getIndexTable(context).map(global, Consoles.startingId);
 	}
-	private BiMap<Short, Short> getIndexTable(String context) {
+	private ContextTable getIndexTable(String context) {
 		if (!allocations.containsKey(context)) {
-			BiMap<Short, Short> target = createTable();
+			ContextTable target = createTable();
 			allocations.put(context, target);
 			return target;
 		}
@@ -203,16 +187,19 @@ public class ConsoleHandler implements Listener {
 	}
 	// when we create new allocation mappings for a client, we can copy over
 	// the global/default allocations
-	private BiMap<Short, Short> createTable() {
-		BiMap<Short, Short> target = HashBiMap.create();
-		for (short s : defaultAllocation) {
-			target.put(s, s);
-		}
+	private ContextTable createTable() {
+		ContextTable target = new ContextTable();
+		target.begin();
+		defaultAllocation.ids().forEach(s -> target.put((short) s, (short) s));
+		target.end();
 		return target;
 	}
 	public MapPainter getPainter() {
 		return painter;
 	}
+	public ProximityTracker getProximityTracker() {
+		return tracker;
+	}
 	@EventHandler
 	public void wrapCommandBlocks(PlayerInteractEvent e) {
 		if (e.getClickedBlock() != null && e.getClickedBlock().getState() instanceof CommandBlock) {
@@ -305,7 +292,7 @@ public class ConsoleHandler implements Listener {
 		allocateNew(player.getName());
 		// toggle all of the map sections for every console for this context
 		for (final ManagedConsole console : consoles) {
-			// toggle switches
+			// mark all maps as changed
 			getPainter().toggle(console, player.getName());
 			// request repaint
 			doLater(() -> getPainter().updateFor(console, player, false, true), 5L);
@@ -314,22 +301,17 @@ public class ConsoleHandler implements Listener {
 	public void replaceWithBlacklist(Player player, short[] ids) {
 		if (!Thread.holdsLock(ALLOCATION_LOCK)) synchronized (ALLOCATION_LOCK) {
 			replaceWithBlacklist(player, ids);
+			return;
 		}
-		BiMap<Short, Short> target = HashBiMap.create();
-
-		short n = -1;
+		ContextTable target = new ContextTable();
+		target.begin();
 		for (short id : ids) {
-			for (; ; n--) {
-				if (!target.containsKey(n)) {
-					target.put(n, id);
-					break;
-				}
-			}
+			target.reserve(id);
 		}
+		defaultAllocation.ids().forEach(s -> target.map((short) s, Consoles.startingId));
+		target.end();
+		// only visible to readers once every id is mapped
 		allocations.put(player.getName(), target);
-		for (short s : defaultAllocation) {
-			mapIndex(player.getName(), s);
-		}
 	}
 	private void doLater(Runnable runnable) {
 		Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), runnable);
@@ -360,14 +342,7 @@ public class ConsoleHandler implements Listener {
 	public short[] getContextIds(Player player) {
 		synchronized (ALLOCATION_LOCK) {
 			if (!allocations.containsKey(player.getName())) return new short[0];
-			Map<Short, Short> map = getIndexTable(player.getName());
-			short[] arr = new short[map.size()];
-			int index = 0;
-			for (short s : map.values()) {
-				arr[index] = s;
-				index++;
-			}
-			return arr;
+			return getIndexTable(player.getName()).clientIds();
 		}
 	}
 	public void clearAllocations(Player player) {
@@ -446,13 +421,14 @@ public class ConsoleHandler implements Listener {
 		clickEvent(e.getPlayer(), e::setCancelled);
 	}
 	public ManagedConsole[] getConsolesLookingAt(Location eye) {
-		return consoles.stream().filter(console -> console.intersect(eye, 7) != null)
+		return index.near(eye, 7).stream().filter(console -> console.intersect(eye, 7) != null)
 				.toArray(ManagedConsole[]::new);
 	}
 	public boolean hittingConsole(Player player) {
-		for (ManagedConsole console : consoles.toArray(new ManagedConsole[consoles.size()])) {
+		Location eye = player.getEyeLocation();
+		for (ManagedConsole console : index.near(eye, 7)) {
 			if (console.created()) {
-				int[] arr = console.intersect(player.getEyeLocation(), 7);
+				int[] arr = console.intersect(eye, 7);
 				if (arr != null)
 					return true;
 			}
@@ -461,9 +437,11 @@ public class ConsoleHandler implements Listener {
 	}
 	private void clickEvent(Player player, Consumer<Boolean> cancel) {
 		boolean cancelled = false;
-		for (ManagedConsole console : consoles.toArray(new ManagedConsole[consoles.size()])) {
+		Location eye = player.getEyeLocation();
+		// only check consoles in the chunks around the player
+		for (ManagedConsole console : index.near(eye, Consoles.interactRange)) {
 			if (console.created()) {
-				int[] arr = console.intersect(player.getEyeLocation(), Consoles.interactRange);
+				int[] arr = console.intersect(eye, Consoles.interactRange);
 				if (arr != null) {
 					if (!cancelled && cancel != null) {
 						cancel.accept(true);
@@ -483,25 +461,15 @@ public class ConsoleHandler implements Listener {
 		removeAll();
 	}
 	public boolean isConsoleEntity(ItemFrame entity) {
-		for (ManagedConsole console : consoles) {
-			if (console.protect(entity))
-				return true;
-		}
-		return false;
+		ManagedConsole console = entities.get(entity.getEntityId());
+		return console != null && console.protect(entity);
 	}
+	// called from netty threads for every metadata packet, this doesn't lock
 	public boolean isConsoleEntity(int id) {
-		for (ManagedConsole console : consoles) {
-			if (console.isFrameId(id))
-				return true;
-		}
-		return false;
+		return entities.contains(id);
 	}
 	public ManagedConsole getConsoleForId(int id) {
-		for (ManagedConsole console : consoles) {
-			if (console.isFrameId(id))
-				return console;
-		}
-		return null;
+		return entities.get(id);
 	}
 	public void removeAll() {
 		for (ManagedConsole console : consoles) {
@@ -509,22 +477,18 @@ public class ConsoleHandler implements Listener {
 			handleRemove(console, false);
 		}
 		consoles.clear();
+		index.clear();
+		entities.clear();
 	}
 	void handleRemove(ManagedConsole console) {
 		handleRemove(console, true);
 	}
 	private void handleRemove(ManagedConsole console, boolean rm) {
 		if (console.created()) {
+			index.remove(console);
+			entities.remove(console);
 			int size = console.getFrameWidth() * console.getFrameHeight();
-			synchronized (ALLOCATION_LOCK) {
-				for (short t = console.getMapIndex(); t < console.getMapIndex() + size; t++) {
-					// update context allocations
-					for (Map<Short, Short> map : allocations.values()) {
-						map.remove(t);
-					}
-					defaultAllocation.remove(Short.valueOf(t));
-				}
-			}
+			free(console.getMapIndex(), size);
 		}
 		if (rm)
 			consoles.remove(console);
@@ -532,39 +496,37 @@ public class ConsoleHandler implements Listener {
 	// this allocates a block of indexes for the maps to use,
 	// and updates all the allocation mappings for active contexts.
 	public short allocate(int size) {
-		short lowest = Consoles.startingId;
 		synchronized (ALLOCATION_LOCK) {
-			while (!fits(lowest, size))
-				lowest++;
+			short lowest = defaultAllocation.allocate(Consoles.startingId, size);
+			if (lowest == -1)
+				throw new IllegalStateException("No room to allocate " + size + " map indexes");
 			for (short t = lowest; t < lowest + size; t++) {
 				// update context allocations
 				for (String context : allocations.keySet()) {
-					if (getIndexTable(context).containsKey(t))
+					if (getIndexTable(context).contains(t))
 						Consoles.getInstance().getLogger().warning(
 								String.format(lang.getString("allocation-overwrite"),context));
 					mapIndex(context, t);
 				}
-				defaultAllocation.add(t);
 			}
+			return lowest;
 		}
-		return lowest;
 	}
 	public void free(short index, int size) {
 		synchronized (ALLOCATION_LOCK) {
-			for (short t = index; t < index + size; t++) {
-				for (Map<Short, Short> map : allocations.values()) {
-					map.remove(t);
+			// update context allocations
+			for (ContextTable table : allocations.values()) {
+				table.begin();
+				for (short t = index; t < index + size; t++) {
+					table.remove(t);
 				}
-				defaultAllocation.remove(Short.valueOf(t));
+				table.end();
 			}
+			defaultAllocation.free(index, size);
+			// encoded packets for these ids can't be sent again
+			ConsolesNMS.packetInternals.clearMapPackets();
 		}
 	}
-	private boolean fits(short i, int size) {
-		for (short index : defaultAllocation) {
-			if (index >= i && index < i + size) return false;
-		}
-		return true;
-	}
 	public List<ManagedConsole> get(String identifier) {
 		return consoles.stream()
 				.filter(console -> console.getIdentifier() != null && console.getIdentifier().equals(identifier))
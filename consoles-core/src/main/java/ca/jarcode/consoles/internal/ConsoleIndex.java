@@ -0,0 +1,104 @@
+package ca.jarcode.consoles.internal;
+
+import ca.jarcode.consoles.util.LocalPosition;
+import ca.jarcode.consoles.util.Region;
+import org.bukkit.Location;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+/*
+
+Spatial index of consoles, keyed by world and then by chunk. Every console is
+stored in each chunk its bounds cover, so looking for consoles near a player only
+needs to check the few chunks around them, instead of every console on the server.
+
+Consoles can also be stored in every chunk within a border around their bounds, so
+that a single chunk lookup finds all the consoles within that distance.
+
+ */
+class ConsoleIndex<T extends ConsoleRenderer> {
+
+	// world -> chunk key -> consoles in that chunk
+	private final Map<UUID, Map<Long, List<T>>> worlds = new ConcurrentHashMap<>();
+	// distance (in blocks) around each console's bounds that is also indexed
+	private final int border;
+
+	ConsoleIndex() {
+		this(0);
+	}
+	ConsoleIndex(int border) {
+		this.border = border;
+	}
+
+	private static long key(int chunkX, int chunkZ) {
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	// the console must be created (it needs a location and bounds)
+	void add(T console) {
+		Map<Long, List<T>> chunks = worlds.computeIfAbsent(
+				console.getLocation().getWorld().getUID(), uid -> new ConcurrentHashMap<>());
+		forEachChunk(console.getBounds(), border, key ->
+				chunks.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(console));
+	}
+
+	void remove(T console) {
+		if (!console.created())
+			return;
+		Map<Long, List<T>> chunks = worlds.get(console.getLocation().getWorld().getUID());
+		if (chunks == null)
+			return;
+		forEachChunk(console.getBounds(), border, key -> {
+			List<T> list = chunks.get(key);
+			if (list != null) {
+				list.remove(console);
+				if (list.isEmpty())
+					chunks.remove(key, list);
+			}
+		});
+	}
+
+	void clear() {
+		worlds.clear();
+	}
+
+	// returns all consoles that have part of their chunks within the given (horizontal) range
+	// of the location. Consoles are only returned once, even if they span multiple chunks.
+	Collection<T> near(Location location, double range) {
+		Map<Long, List<T>> chunks = worlds.get(location.getWorld().getUID());
+		if (chunks == null)
+			return Collections.emptyList();
+		int minX = ((int) Math.floor(location.getX() - range)) >> 4;
+		int maxX = ((int) Math.floor(location.getX() + range)) >> 4;
+		int minZ = ((int) Math.floor(location.getZ() - range)) >> 4;
+		int maxZ = ((int) Math.floor(location.getZ() + range)) >> 4;
+		Set<T> found = null;
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				List<T> list = chunks.get(key(x, z));
+				if (list != null) {
+					if (found == null)
+						found = new LinkedHashSet<>();
+					found.addAll(list);
+				}
+			}
+		}
+		return found == null ? Collections.emptyList() : found;
+	}
+
+	private static void forEachChunk(Region bounds, int border, LongConsumer consumer) {
+		LocalPosition origin = bounds.getOrigin();
+		int minX = (origin.x - border) >> 4;
+		int maxX = (origin.x + bounds.getWidth() - 1 + border) >> 4;
+		int minZ = (origin.z - border) >> 4;
+		int maxZ = (origin.z + bounds.getDepth() - 1 + border) >> 4;
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				consumer.accept(key(x, z));
+			}
+		}
+	}
+}
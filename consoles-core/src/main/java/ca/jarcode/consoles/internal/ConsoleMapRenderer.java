@@ -13,6 +13,8 @@ and update triggers.
  */
 public class ConsoleMapRenderer {
 
+	private static final int[] FULL_AREA = {0, 0, ConsolePixelBuffer.SIZE, ConsolePixelBuffer.SIZE};
+
 	private ConsoleRenderer renderer;
 	private short id;
 	private ConsolePixelBuffer pixelBuffer;
@@ -29,37 +31,44 @@ public class ConsoleMapRenderer {
 	public void clearContextCache(String context) {
 		newContexts.remove(context);
 	}
-	public void forceSwitch(String context) {
-		ConsolePixelBuffer.UpdateSwitch update = pixelBuffer.getSwitch(context, x, y);
-		if (update != null)
-			update.fire();
+	public void forceUpdate(String context) {
+		ConsolePixelBuffer.DirtyRegion region = pixelBuffer.getDirtyRegion(context, x, y);
+		if (region != null)
+			region.markAll();
 	}
 	public boolean update(ClientConnection connection, final String context) {
 
 		if (!renderer.created()) return false;
 
-		// this switch determines whether the packet should be sent to the client.
-		// it is only true/fired if this section of the pixel buffer has been written to since the last check,
-		// and returns null if the context has never been written to for the entire console
-		ConsolePixelBuffer.UpdateSwitch update = pixelBuffer.getSwitch(context, x, y);
-
 		// get the id of the map we're actually sending to, instead of the global id we generally refer to
 		short clientId = ConsoleHandler.getInstance().translateIndex(context, id);
-		// send an update if an update was fired, or if the context map id hasn't been seen to this player before
+		// the id isn't mapped for this player (yet), there is nothing we could send it to. The changed
+		// area is left marked, so it's sent once there is an id.
+		if (clientId == -1)
+			return false;
+
+		// this region determines what area of the map should be sent to the client.
+		// it is only dirty if this section of the pixel buffer has been written to since the last check,
+		// and is null if the context has never been written to for the entire console
+		ConsolePixelBuffer.DirtyRegion region = pixelBuffer.getDirtyRegion(context, x, y);
+		int[] area = region == null ? null : region.poll();
+		// send an update if an area was changed, or if the context map id hasn't been seen to this player before
 		short lastId = getLastId(context);
-		if ((update != null && update.wasFired()) || lastId != clientId) {
+		if (area != null || lastId != clientId) {
 			if (lastId == -1)
 				return true;
-			byte[] data = pixelBuffer.getBuffer(context, x, y);
-			// if the id of the map for this player changed, send them an update packet
+			// if the id of the map for this player changed, send them an update packet for the entire map,
+			// the client doesn't have anything for this id yet.
 			if (lastId != clientId) {
 				newContexts.put(context, clientId);
+				area = FULL_AREA;
 			}
-			// create the packet
-			Object packet = ConsolesNMS.packetInternals.createMapPacket(data, clientId);
-			// send the packet
-			if (packet != null)
-				connection.sendPacket(packet);
+			byte[] data = pixelBuffer.getBuffer(context, x, y, area);
+			long version = pixelBuffer.getVersion(context, x, y);
+			// send the packet, only covering the area that changed. Packets with the same contents
+			// are only encoded once, and then shared between every player they are sent to.
+			ConsolesNMS.packetInternals.sendMapPacket(connection, data, version, clientId,
+					area[0], area[1], area[2], area[3]);
 			return true;
 		}
 		return false;
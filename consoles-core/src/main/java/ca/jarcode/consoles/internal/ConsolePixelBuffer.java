@@ -1,18 +1,13 @@
 package ca.jarcode.consoles.internal;
 
-import ca.jarcode.consoles.Consoles;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.HandlerList;
-import org.bukkit.event.Listener;
-import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
-import org.bukkit.event.player.PlayerQuitEvent;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /*
 
@@ -21,84 +16,372 @@ The single buffer that exists for every console. This is a somewhat complex clas
 This buffer will handle some events/triggers, and contains the data for every
 context (player).
 
+Pixel data is copy-on-write. There is a single base layer that every context reads
+through, which is written to by the 'base context' (the first context to paint). Other
+contexts only get their own copy of a tile (an overlay) once they paint something
+different than what is in the base layer for that tile, so most consoles - which look
+the same for every player - only ever keep one copy of their pixels around.
+
+The base context has to be one that is still being painted, otherwise the base layer
+goes stale and every other context ends up with overlays. When the console is repainted
+without the base context (the player left the area), another context takes it over.
+
+
  */
 public class ConsolePixelBuffer {
 
     // painting width and height. I doubt this will change.
     public static final int SIZE = 128;
 
-    // segmented buffers for every context
-    HashMap<String, byte[][][]> buffers = new HashMap<>();
-    // flipped when a single map needs to update
-    // triggered on forced repaints/updates and when a pixel in this map is modified
-    HashMap<String, UpdateSwitch[][]> switches = new HashMap<>();
+    // the type of storage used for new pixel buffers, set from the configuration
+    public static PixelStorage.Type storageType = PixelStorage.Type.HEAP;
+
+    // the shared layer, which all contexts read from unless they have an overlay for a tile
+    private PixelStorage base;
+    // the context that writes to the base layer
+    private String baseContext;
+    // areas of the base layer that the base context has modified in its current paint
+    private DirtyRegion[] baseModified;
+    // sparse overlays for every context, with a single tile of storage for each tile that
+    // differs from the base layer (or null, for tiles that are read from the base layer)
+    HashMap<String, PixelStorage[]> overlays = new HashMap<>();
+    // the area of each map that needs to be sent to a context
+    // grown when a pixel in the map is modified, and covers the whole map on forced repaints/updates
+    HashMap<String, DirtyRegion[][]> dirty = new HashMap<>();
     // flipped when the buffer needs to be repainted for a context
     List<String> repaintStack = new ArrayList<>();
-    // player listener, used to trigger updates on certain events
-    private PlayerListener listener;
     // console renderer this belongs to
     private ConsoleRenderer renderer;
     // width and height
     private int w, h;
+    // set once the console is removed, nothing can be painted to the buffer after this
+    private volatile boolean removed = false;
 
     public ConsolePixelBuffer(ConsoleRenderer renderer, int w, int h) {
         this.w = w;
         this.h = h;
         this.renderer = renderer;
+        baseModified = new DirtyRegion[w * h];
+        for (int t = 0; t < baseModified.length; t++) {
+            baseModified[t] = new DirtyRegion();
+        }
     }
     void onCreate() {
-        listener = new PlayerListener();
-        Bukkit.getPluginManager().registerEvents(listener, Consoles.getInstance());
+        // players walking into range of this console are sent updates from the tracker
+        ConsoleHandler.getInstance().getProximityTracker().add(renderer);
         for (Player player : Bukkit.getOnlinePlayers()) {
             updateFor(player, true, true);
         }
     }
-    private byte[][][] newBuffer() {
-        return new byte[w][h][SIZE * SIZE];
+    private int tile(int x, int y) {
+        return (x / SIZE) * h + (y / SIZE);
     }
-    private UpdateSwitch[][] initSwitches(String str) {
-        UpdateSwitch[][] updated = new UpdateSwitch[w][h];
+    private DirtyRegion[][] initRegions(String str) {
+        DirtyRegion[][] updated = new DirtyRegion[w][h];
         for (int i = 0; i < w; i++) {
             for (int j = 0; j < h; j++) {
-                updated[i][j] = new UpdateSwitch();
+                updated[i][j] = new DirtyRegion();
             }
         }
-        switches.put(str, updated);
+        dirty.put(str, updated);
         return updated;
     }
     public byte get(int x, int y, String context) {
-        byte[][][] buffer = buffers.get(context);
-        if (buffer == null)
+        if (base == null)
             return 0;
-        if (x / SIZE >= 0 && x / SIZE < this.w && y / SIZE >= 0 && y / SIZE < this.h)
-            return buffer[x / SIZE][y / SIZE][x % SIZE + ((y % SIZE) * SIZE)];
+        if (x >= 0 && x < this.w * SIZE && y >= 0 && y < this.h * SIZE) {
+            int tile = tile(x, y);
+            int index = x % SIZE + ((y % SIZE) * SIZE);
+            PixelStorage[] overlay = overlays.get(context);
+            if (overlay != null && overlay[tile] != null)
+                return overlay[tile].get(0, index);
+            return base.get(tile, index);
+        }
         else return 0;
     }
     public void set(int x, int y, byte b, String context) {
-        byte[][][] buffer = buffers.get(context);
-        UpdateSwitch[][] updated = switches.get(context);
-        if (buffer == null) {
-            buffer = newBuffer();
-            buffers.put(context, buffer);
+        Raster raster = raster(context);
+        if (raster != null)
+            raster.set(x, y, b);
+    }
+    // Sets a horizontal run of pixels to the same color
+    public void setRow(int x, int y, int length, byte b, String context) {
+        Raster raster = raster(context);
+        if (raster != null)
+            raster.fillRow(x, y, length, b);
+    }
+    // Returns the raster for the given context, which can be drawn to directly without looking up
+    // the context's data for every pixel. A raster is only valid for a single paint, while holding
+    // the renderer lock. Returns null if the console has been removed, so that a late paint can't
+    // allocate storage again.
+    Raster raster(String context) {
+        if (removed)
+            return null;
+        DirtyRegion[][] updated = dirty.get(context);
+        if (base == null) {
+            base = storageType.create(w * h);
+        }
+        if (baseContext == null) {
+            handOver(context);
         }
         if (updated == null) {
-            updated = initSwitches(context);
+            updated = initRegions(context);
         }
-        if (x >= 0 && x < this.w * SIZE && y >= 0 && y < this.h * SIZE) {
-            buffer[x / SIZE][y / SIZE][x % SIZE + ((y % SIZE) * SIZE)] = b;
-            updated[x / SIZE][y / SIZE].fire();
+        return new Raster(context, updated);
+    }
+    // The pixel data for a single context, with the overlays and dirty regions for the context
+    // already resolved. All writes compare against what the context currently sees, so only pixels
+    // that actually change are marked dirty (and copied into an overlay).
+    class Raster {
+
+        private final String context;
+        private final DirtyRegion[][] updated;
+        // the base context writes right through to the shared layer
+        private final boolean writeBase;
+        private PixelStorage[] overlay;
+
+        private Raster(String context, DirtyRegion[][] updated) {
+            this.context = context;
+            this.updated = updated;
+            writeBase = context.equals(baseContext);
+            overlay = writeBase ? null : overlays.get(context);
+        }
+
+        byte get(int x, int y) {
+            if (x >= 0 && x < w * SIZE && y >= 0 && y < h * SIZE) {
+                int tile = tile(x, y);
+                int index = x % SIZE + ((y % SIZE) * SIZE);
+                if (overlay != null && overlay[tile] != null)
+                    return overlay[tile].get(0, index);
+                return base.get(tile, index);
+            }
+            else return 0;
+        }
+
+        void set(int x, int y, byte b) {
+            fillRow(x, y, 1, b);
+        }
+
+        void fillRow(int x, int y, int length, byte b) {
+            row(x, y, length, b, null, 0);
+        }
+
+        // copies a row of pixels from the given data
+        void blitRow(int x, int y, byte[] data, int offset, int length) {
+            row(x, y, length, (byte) 0, data, offset);
+        }
+
+        void fillRect(int x, int y, int width, int height, byte b) {
+            for (int row = y; row < y + height; row++) {
+                fillRow(x, row, width, b);
+            }
+        }
+
+        // copies an area of this raster to (x + dx, y + dy). The area is read before it is written,
+        // so the source and destination can overlap.
+        void copyArea(int x, int y, int width, int height, int dx, int dy) {
+            if (width <= 0 || height <= 0)
+                return;
+            byte[] copy = new byte[width * height];
+            for (int j = 0; j < height; j++) {
+                for (int i = 0; i < width; i++) {
+                    copy[(j * width) + i] = get(x + i, y + j);
+                }
+            }
+            for (int j = 0; j < height; j++) {
+                blitRow(x + dx, y + dy + j, copy, j * width, width);
+            }
+        }
+
+        // writes a run of pixels in a row, either from data or with a single color (if data is null)
+        private void row(int x, int y, int length, byte b, byte[] data, int offset) {
+            if (y < 0 || y >= h * SIZE)
+                return;
+            if (x < 0) {
+                length += x;
+                offset -= x;
+                x = 0;
+            }
+            if (x + length > w * SIZE)
+                length = (w * SIZE) - x;
+            int ty = y / SIZE, ly = y % SIZE;
+            int at = x, end = x + length;
+            while (at < end) {
+                // split the run at map boundaries
+                int tx = at / SIZE;
+                int tileEnd = Math.min(end, (tx + 1) * SIZE);
+                span(tx, ty, at % SIZE, ly, tileEnd - at, b, data, offset + (at - x));
+                at = tileEnd;
+            }
+        }
+
+        // writes a run of pixels that is inside of a single map
+        private void span(int tx, int ty, int lx, int ly, int length, byte b, byte[] data, int offset) {
+            int tile = tx * h + ty;
+            int index = lx + (ly * SIZE);
+            // the storage we write to (if any), and the storage that this context currently sees
+            PixelStorage target = null;
+            int targetTile = 0;
+            if (writeBase) {
+                target = base;
+                targetTile = tile;
+            }
+            else if (overlay != null && overlay[tile] != null) {
+                target = overlay[tile];
+            }
+            PixelStorage visible = target != null ? target : base;
+            int visibleTile = target != null ? targetTile : tile;
+            // find the part of the run that actually changes
+            int first = -1, last = -1;
+            for (int t = 0; t < length; t++) {
+                byte color = data == null ? b : data[offset + t];
+                if (visible.get(visibleTile, index + t) != color) {
+                    if (first == -1)
+                        first = t;
+                    last = t;
+                }
+            }
+            if (first == -1)
+                return;
+            // this context is painting something different from the shared layer, so
+            // it needs its own copy of this tile.
+            if (target == null) {
+                // the overlays could have been created since this raster was
+                if (overlay == null)
+                    overlay = overlays.get(context);
+                if (overlay == null) {
+                    overlay = new PixelStorage[w * h];
+                    overlays.put(context, overlay);
+                }
+                overlay[tile] = storageType.create(1);
+                overlay[tile].write(0, base.tile(tile));
+                target = overlay[tile];
+            }
+            if (data == null)
+                target.fill(targetTile, index + first, (last - first) + 1, b);
+            else
+                target.write(targetTile, index + first, data, offset + first, (last - first) + 1);
+            DirtyRegion region = updated[tx][ty];
+            region.mark(lx + first, ly);
+            region.mark(lx + last, ly);
+            if (writeBase) {
+                baseModified[tile].mark(lx + first, ly);
+                baseModified[tile].mark(lx + last, ly);
+            }
+        }
+    }
+    // Called by the painter before repainting the given contexts. If the base context isn't one of
+    // them, it is out of range (and isn't going to paint), so the base layer is handed to a context
+    // that is. Contexts that don't have any overlays are preferred, since they can take over for free.
+    void rebase(Collection<String> contexts) {
+        if (base == null || baseContext == null || contexts.isEmpty() || contexts.contains(baseContext))
+            return;
+        for (String context : contexts) {
+            if (!overlays.containsKey(context)) {
+                handOver(context);
+                return;
+            }
+        }
+        handOver(contexts.iterator().next());
+    }
+    // Makes the given context the new owner of the base layer. The base context can't have overlays,
+    // so its overlay tiles are moved into the base layer. Every other context that was reading those
+    // tiles through the base layer is given a copy of the old tile first, so nothing changes for them
+    // (they'd otherwise be sent the new owner's pixels without being repainted). Copies that end up the
+    // same as the base layer are dropped the next time those contexts are painted.
+    private void handOver(String context) {
+        baseContext = context;
+        PixelStorage[] owned = overlays.remove(context);
+        if (owned == null) return;
+        for (int t = 0; t < owned.length; t++) {
+            if (owned[t] == null) continue;
+            for (String other : dirty.keySet()) {
+                if (other.equals(context)) continue;
+                PixelStorage[] overlay = overlays.get(other);
+                if (overlay == null) {
+                    overlay = new PixelStorage[w * h];
+                    overlays.put(other, overlay);
+                }
+                if (overlay[t] == null) {
+                    overlay[t] = storageType.create(1);
+                    overlay[t].write(0, base.tile(t));
+                }
+            }
+            base.write(t, owned[t].tile(0));
+            owned[t].release();
+        }
+    }
+    // Called by the painter after painting a context. If the base layer was modified, this
+    // marks the modified areas as dirty for every context that reads through those tiles.
+    // Otherwise, overlay tiles that ended up the same as the base layer are dropped.
+    void finishPaint(String context) {
+        if (base == null) return;
+        if (context.equals(baseContext)) {
+            for (int t = 0; t < baseModified.length; t++) {
+                if (!baseModified[t].isDirty()) continue;
+                for (Map.Entry<String, DirtyRegion[][]> entry : dirty.entrySet()) {
+                    if (entry.getKey().equals(baseContext)) continue;
+                    PixelStorage[] overlay = overlays.get(entry.getKey());
+                    if (overlay == null || overlay[t] == null)
+                        entry.getValue()[t / h][t % h].mark(baseModified[t]);
+                }
+                baseModified[t].clear();
+            }
+        }
+        else {
+            PixelStorage[] overlay = overlays.get(context);
+            if (overlay == null) return;
+            boolean empty = true;
+            for (int t = 0; t < overlay.length; t++) {
+                if (overlay[t] == null) continue;
+                if (overlay[t].tileEquals(0, base, t)) {
+                    overlay[t].release();
+                    overlay[t] = null;
+                }
+                else empty = false;
+            }
+            if (empty)
+                overlays.remove(context);
         }
     }
-    static class UpdateSwitch {
+    // Bounding box of the pixels in a single map that have changed since it was last sent.
+    // Map packets can update a smaller area than the entire map, so we only send this area.
+    static class DirtyRegion {
 
-        private boolean fired = false;
-        public void fire() {
-            fired = true;
+        private int minX = SIZE, minY = SIZE, maxX = -1, maxY = -1;
+
+        public void mark(int x, int y) {
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        public void mark(DirtyRegion region) {
+            if (!region.isDirty()) return;
+            mark(region.minX, region.minY);
+            mark(region.maxX, region.maxY);
+        }
+        public void markAll() {
+            minX = 0;
+            minY = 0;
+            maxX = SIZE - 1;
+            maxY = SIZE - 1;
+        }
+        public boolean isDirty() {
+            return maxX >= minX;
+        }
+        public void clear() {
+            minX = SIZE;
+            minY = SIZE;
+            maxX = -1;
+            maxY = -1;
         }
-        public boolean wasFired() {
-            boolean b = fired;
-            fired = false;
-            return b;
+        // returns the dirty area as {x, y, width, height} and clears it, or null if nothing changed
+        public int[] poll() {
+            if (!isDirty()) return null;
+            int[] area = {minX, minY, (maxX - minX) + 1, (maxY - minY) + 1};
+            clear();
+            return area;
         }
     }
     boolean needsRepaint(String context) {
@@ -111,75 +394,96 @@ public class ConsolePixelBuffer {
         repaintStack.clear();
     }
     byte[] getBuffer(String context, int x, int y) {
-        return !buffers.containsKey(context) ?
-                null : buffers.get(context)[x][y];
+        if (base == null)
+            return null;
+        PixelStorage[] overlay = overlays.get(context);
+        if (overlay != null && overlay[x * h + y] != null)
+            return overlay[x * h + y].tile(0);
+        return base.tile(x * h + y);
     }
-    public void resetSwitches(String context) {
-        if (!switches.containsKey(context)) return;
-        UpdateSwitch[][] updated = new UpdateSwitch[w][h];
+    // Version of the data for a single map, as the context sees it. This changes every time the map is
+    // painted to, and two contexts only have the same version if they see the same tile.
+    long getVersion(String context, int x, int y) {
+        PixelStorage[] overlay = overlays.get(context);
+        if (overlay != null && overlay[x * h + y] != null)
+            return overlay[x * h + y].version(0);
+        return base == null ? 0 : base.version(x * h + y);
+    }
+    // returns the data in the given area ({x, y, width, height}) of a single map, as a series of rows
+    byte[] getBuffer(String context, int x, int y, int[] area) {
+        if (area[2] == SIZE && area[3] == SIZE)
+            return getBuffer(context, x, y);
+        if (base == null)
+            return null;
+        PixelStorage[] overlay = overlays.get(context);
+        if (overlay != null && overlay[x * h + y] != null)
+            return overlay[x * h + y].region(0, area[0], area[1], area[2], area[3]);
+        return base.region(x * h + y, area[0], area[1], area[2], area[3]);
+    }
+    // frees the storage for the given context. This has to be done while holding the renderer lock,
+    // since off-heap storage is gone as soon as it is released.
+    void release(String context) {
+        if (!Thread.holdsLock(renderer.RENDERER_LOCK)) synchronized (renderer.RENDERER_LOCK) {
+            release(context);
+            return;
+        }
+        releaseOverlay(overlays.remove(context));
+        dirty.remove(context);
+        // the next context to paint will take over the base layer
+        if (context.equals(baseContext))
+            baseContext = null;
+    }
+    private void releaseOverlay(PixelStorage[] overlay) {
+        if (overlay == null) return;
+        for (PixelStorage tile : overlay) {
+            if (tile != null)
+                tile.release();
+        }
+    }
+    public void markAllDirty(String context) {
+        DirtyRegion[][] updated = dirty.get(context);
+        if (updated == null) return;
         for (int i = 0; i < w; i++) {
             for (int j = 0; j < h; j++) {
-                updated[i][j] = new UpdateSwitch();
-                updated[i][j].fire();
+                updated[i][j].markAll();
             }
         }
-        switches.put(context, updated);
     }
-    ConsolePixelBuffer.UpdateSwitch getSwitch(String context, int x, int y) {
-        return !switches.containsKey(context) ?
-                null : switches.get(context)[x][y];
+    ConsolePixelBuffer.DirtyRegion getDirtyRegion(String context, int x, int y) {
+        return !dirty.containsKey(context) ?
+                null : dirty.get(context)[x][y];
     }
     boolean contextExists(String context) {
-        return switches.containsKey(context);
+        return dirty.containsKey(context);
     }
     public void updateFor(Player player, boolean force, boolean paintIfNew) {
         ConsoleHandler.getInstance().getPainter().updateFor(renderer, player, force, paintIfNew);
     }
 
-    private class PlayerListener implements Listener {
-        // track whether player is in range or not
-        private boolean inside = false;
-        @EventHandler
-        @SuppressWarnings("unused")
-        // We take the join events and update a player's paintings after
-        // This way, when a player moves within range of the console,
-        // this painting is updated for them (because they haven't had it rendered since they joined!)
-        public void onPlayerJoin(final PlayerJoinEvent e) {
-            // delay initial map packets
-            Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), () -> {
-                if (renderer.pos.getWorld() == e.getPlayer().getWorld()
-                    && renderer.pos.distanceSquared(e.getPlayer().getLocation()) <= 1280) {
-                    updateFor(e.getPlayer(), true, true);
-                }
-            }, 10L);
-        }
-        @EventHandler
-        @SuppressWarnings("unused")
-        public void onPlayerQuit(PlayerQuitEvent e) {
-            for (ConsoleMapRenderer map : renderer.renderers()) {
-                map.clearContextCache(e.getPlayer().getName());
-            }
-            repaintStack.remove(e.getPlayer().getName());
-        }
-        // update the painting for players that just entered the area
-        @EventHandler
-        @SuppressWarnings("unused")
-        public void onPlayerMove(PlayerMoveEvent e) {
-            boolean last = inside;
-            inside = renderer.pos.getWorld() == e.getPlayer().getWorld()
-                && renderer.pos.distanceSquared(e.getTo()) <= 1280;
-            // if the player entered the radius, update the painting
-            if (!last && inside)
-                updateFor(e.getPlayer(), false, true);
-        }
-
-        public void remove() {
-            HandlerList.unregisterAll(this);
+    // called when a player leaves the server
+    void onQuit(String context) {
+        for (ConsoleMapRenderer map : renderer.renderers()) {
+            map.clearContextCache(context);
         }
+        repaintStack.remove(context);
+        release(context);
     }
+    boolean isRemoved() {
+        return removed;
+    }
+    // must be holding the renderer lock
     void remove() {
-        if (listener != null) {
-            listener.remove();
+        removed = true;
+        ConsoleHandler.getInstance().getProximityTracker().remove(renderer);
+        // drop requests that are still waiting for their frame, or were deferred to the next tick
+        ConsoleHandler.getInstance().getPainter().forget(renderer);
+        overlays.values().forEach(this::releaseOverlay);
+        overlays.clear();
+        dirty.clear();
+        if (base != null) {
+            base.release();
+            base = null;
         }
-	}
+        baseContext = null;
+    }
 }
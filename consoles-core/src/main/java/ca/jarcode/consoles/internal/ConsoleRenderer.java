@@ -93,6 +93,13 @@ public abstract class ConsoleRenderer implements Canvas {
 	// Name of the console type. Doesn't actually do anything.
 	protected String type = "unknown";
 
+	// maximum amount of times this console is painted each second, or -1 to use the painter's default.
+	// repaints requested faster than this are folded into the next frame.
+	private volatile int frameRate = -1;
+
+	// the raster for the context that components are currently being painted in
+	private ConsolePixelBuffer.Raster raster;
+
 	public ConsoleRenderer(int w, int h) {
 		this(w, h, true);
 	}
@@ -169,6 +176,13 @@ public abstract class ConsoleRenderer implements Canvas {
 	public void setType(String name) {
 		this.type = name;
 	}
+	public int getFrameRate() {
+		return frameRate < 0 ? MapPainter.frameRate : frameRate;
+	}
+	// 0 means this console can be painted as often as it is requested
+	public void setFrameRate(int frameRate) {
+		this.frameRate = frameRate;
+	}
 	// I don't expect you to understand this.
 	public int[] intersect(Location eye, double distance) {
 		// ignore different worlds
@@ -291,7 +305,17 @@ public abstract class ConsoleRenderer implements Canvas {
 		return pos;
 	}
 	public final void draw(int x, int y, byte color) {
-		screen.set(x, y, color, getPaintContext());
+		ConsolePixelBuffer.Raster target = getRaster();
+		if (target != null)
+			target.set(x, y, color);
+	}
+	// Returns the raster for the context currently being painted. While components are being painted,
+	// this is resolved once for the entire paint instead of for every pixel. Null once the console is removed.
+	ConsolePixelBuffer.Raster getRaster() {
+		ConsolePixelBuffer.Raster current = raster;
+		if (current != null && Thread.holdsLock(RENDERER_LOCK))
+			return current;
+		return screen.raster(getPaintContext());
 	}
 	protected String getPaintContext() {
 		return ConsoleHandler.getInstance().getPainter().getPaintContext();
@@ -310,13 +334,13 @@ public abstract class ConsoleRenderer implements Canvas {
 	//
 	// It also calls threaded code, so it won't block, but will put stress on the server
 	public void repaint() {
-		if (Thread.currentThread().getName().equals("Console Painting Thread")) {
+		if (Thread.currentThread().getName().startsWith("Console Painting Thread")) {
 			throw new RuntimeException("repaint() cannot be called within a paint cycle!");
 		}
 		ConsoleHandler.getInstance().getPainter().repaint(this);
 	}
 	public void repaint(int tickDelay) {
-		if (Thread.currentThread().getName().equals("Console Painting Thread")) {
+		if (Thread.currentThread().getName().startsWith("Console Painting Thread")) {
 			throw new RuntimeException("repaint() cannot be called within a paint cycle!");
 		}
 		Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), this::repaint, tickDelay);
@@ -411,14 +435,23 @@ public abstract class ConsoleRenderer implements Canvas {
 			drawComponents();
 			return;
 		}
-		if (!drewBackground(getPaintContext()))
-			drawBackground();
-		for (Position2D pos : components.keySet()) {
-			ConsoleComponent obj = components.get(pos);
-			if (obj.enabled()) {
-				obj.paint(new ConsoleGraphics(this, obj, pos), getPaintContext());
+		String context = getPaintContext();
+		raster = screen.raster(context);
+		if (raster == null)
+			return;
+		try {
+			if (!drewBackground(context))
+				drawBackground();
+			for (Position2D pos : components.keySet()) {
+				ConsoleComponent obj = components.get(pos);
+				if (obj.enabled()) {
+					obj.paint(new ConsoleGraphics(this, obj, pos, raster), context);
+				}
 			}
 		}
+		finally {
+			raster = null;
+		}
 	}
 	void drawBackground(int x, int y, int w, int h) {
 		if (!Thread.holdsLock(RENDERER_LOCK)) synchronized (RENDERER_LOCK) {
@@ -426,9 +459,12 @@ public abstract class ConsoleRenderer implements Canvas {
 			return;
 		}
 		toggleBackground(getPaintContext(), true);
+		ConsolePixelBuffer.Raster target = getRaster();
+		if (target == null)
+			return;
 		for (int xi = x; xi < x + w; xi++) {
 			for (int yi = y; yi < y + h; yi++) {
-				draw(xi, yi, bg[xi][yi]);
+				target.set(xi, yi, bg[xi][yi]);
 			}
 		}
 	}
@@ -437,9 +473,12 @@ public abstract class ConsoleRenderer implements Canvas {
 			drawBackground();
 			return;
 		}
+		ConsolePixelBuffer.Raster target = getRaster();
+		if (target == null)
+			return;
 		for (int x = 0; x < getWidth(); x++) {
 			for (int y = 0; y < getHeight(); y++) {
-				draw(x, y, bg[x][y]);
+				target.set(x, y, bg[x][y]);
 			}
 		}
 	}
@@ -2,15 +2,12 @@ package ca.jarcode.consoles.internal;
 
 import ca.jarcode.consoles.CColor;
 import ca.jarcode.consoles.api.nms.CommandExecutor;
-import com.google.common.base.Joiner;
 import ca.jarcode.consoles.api.CanvasGraphics;
 import ca.jarcode.consoles.api.Position2D;
 import org.bukkit.ChatColor;
 import org.bukkit.map.MapFont;
 import org.bukkit.map.MinecraftFont;
 
-import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -20,24 +17,39 @@ import java.util.regex.Pattern;
 Basic text area that renders text to a square area. This component has
 full word wrap, and can be written to.
 
+Lines are kept in a ring buffer that holds the visible lines plus a configurable amount
+of scrollback, so adding a line never has to move the other lines around. Each line also
+keeps its width (in pixels, plus the spacing after its last character), so wrapping only
+has to measure the text being added, one character at a time.
+
  */
 public class ConsoleTextArea extends ConsoleComponent implements WritableComponent {
 
 	private static final int MARGIN = 2;
 
+	// amount of lines kept after they scroll out of view, set from the configuration
+	public static int scrollback = 100;
+
 	private MapFont font = MinecraftFont.Font;
+	private GlyphAtlas atlas = GlyphAtlas.of(font);
 	private int textHeight = font.getHeight() + 1;
-	private List<String> stack = new CopyOnWriteArrayList<>();
+
+	private final Object LINE_LOCK = new Object();
+	// lines, and the width of each line, starting at the oldest line
+	private final String[] lines;
+	private final int[] advances;
+	private int head = 0, count = 1;
+	// amount of lines the view is scrolled back by
+	private int offset = 0;
+
 	private int maxStackSize;
 	private int maxWidth;
 	private byte defaultTextColor = 32;
 	private byte lastColor = defaultTextColor;
 
-	{
-		stack.add("");
-	}
 	public void setFont(MapFont font) {
 		this.font = font;
+		this.atlas = GlyphAtlas.of(font);
 	}
 	public static ConsoleTextArea createOver(ConsoleRenderer renderer) {
 		return new ConsoleTextArea(renderer.getWidth() - 4, renderer.getHeight() - 4, renderer);
@@ -54,6 +66,9 @@ public class ConsoleTextArea extends ConsoleComponent implements WritableCompone
 		super(w, h, renderer);
 		maxStackSize = (h - MARGIN) / textHeight;
 		maxWidth = w;
+		lines = new String[Math.max(maxStackSize, 1) + Math.max(scrollback, 0)];
+		advances = new int[lines.length];
+		lines[0] = "";
 	}
 	public void print(String text) {
 		text = text.replace("\t", "    ");
@@ -84,97 +99,115 @@ public class ConsoleTextArea extends ConsoleComponent implements WritableCompone
 	}
 	private void printContent(String text) {
 		text = ManagedConsole.removeUnsupportedCharacters(text);
-		String stripped = CColor.strip(text + getLastLine());
-		if (font.getWidth(stripped) > maxWidth) {
-			String[] split = text.split(" ");
-			List<String> list = new ArrayList<>();
-			int index = 0;
-			for (String s : split) {
-				list.add(s);
-				String comb = CColor.strip(Joiner.on(" ").join(list) + getLastLine());
-				if (font.getWidth(comb) <= maxWidth) {
-					index++;
-				}
-				else break;
-			}
-			// can't fit
-			if (index == 0) {
-				// line is empty, can't fit
-				if (CColor.strip(getLastLine()).isEmpty()) {
-					StringBuilder builder = new StringBuilder();
-					StringBuilder check = new StringBuilder();
-					char[] arr = text.toCharArray();
-					int t;
-					for (t = 0; t < text.length(); t++) {
-						if (arr[t] != '\u00A7'
-								&& (!CColor.colorCharRange(arr[t]) || t == 0 || arr[t - 1] != '\u00A7')) {
-							check.append(arr[t]);
-							String bare = check.toString();
-							if (font.getWidth(bare) > maxWidth) {
-								break;
-							} else builder.append(arr[t]);
-						}
-						else builder.append(arr[t]);
+		synchronized (LINE_LOCK) {
+			while (true) {
+				int last = index(count - 1);
+				// a line fits if its width is at most the max width, and the width of a line is
+				// its advance minus the spacing after the last character
+				int room = maxWidth + 1 - advances[last];
+				// measure the text until it doesn't fit, remembering the last space that did
+				int total = 0, fit = -1, fitAdvance = 0, t;
+				for (t = 0; t < text.length() && total <= room; t++) {
+					char c = text.charAt(t);
+					if (c == ' ') {
+						fit = t;
+						fitAdvance = total;
 					}
-					// add sectioned
-					printContent(builder.toString());
-					stack.add("");
-					// add other portion
-					printContent(text.substring(t, text.length()));
+					if (visible(text, t))
+						total += atlas.advance(c);
 				}
-				// line isn't empty, try to fit into new line
-				else {
-					stack.add("");
-					printContent(text);
+				// fit
+				if (total <= room) {
+					append(last, text, total);
+					return;
 				}
-			}
-			// partial fit
-			else {
-				StringBuilder builder = new StringBuilder();
-				for (int t = 0; t < index; t++) {
-					builder.append(split[t]);
-					builder.append(" ");
+				// can't fit
+				if (fit == -1) {
+					// line is empty, split the word at the character that doesn't fit
+					if (advances[last] == 0) {
+						int end = Math.max(t - 1, 1);
+						append(last, text.substring(0, end), advance(text, end));
+						text = text.substring(end);
+					}
+					// otherwise, try to fit into new line
+					newLine();
 				}
-				//fit text
-				String str = builder.toString();
-				stack.set(currentLine(), getLastLine() + str);
-
-				builder = new StringBuilder();
-				for (int t = index; t < split.length; t++) {
-					builder.append(split[t]);
-					if (t != split.length - 1)
-						builder.append(" ");
+				// partial fit, the words that fit are added with the space after them
+				else {
+					append(last, text.substring(0, fit + 1), fitAdvance + atlas.advance(' '));
+					text = text.substring(fit + 1);
 				}
-				//remaining
-				printContent(builder.toString());
 			}
 		}
-		// fit
-		else {
-			stack.set(currentLine(), getLastLine() + text);
-		}
-		while (stack.size() > maxStackSize) {
-			stack.remove(0);
+	}
+	// width of the visible characters before the given index, including the spacing after each one
+	private int advance(String text, int end) {
+		int total = 0;
+		for (int t = 0; t < end; t++) {
+			if (visible(text, t))
+				total += atlas.advance(text.charAt(t));
 		}
+		return total;
+	}
+	// whether the character isn't part of a color code (same rules as CColor.strip)
+	private static boolean visible(String text, int t) {
+		char c = text.charAt(t);
+		return c != '\u00A7' && (!CColor.colorCharRange(c) || t == 0 || text.charAt(t - 1) != '\u00A7');
+	}
+	private int index(int line) {
+		return (head + line) % lines.length;
+	}
+	private void append(int index, String text, int advance) {
+		lines[index] = lines[index] + text;
+		advances[index] += advance;
+	}
+	// adds an empty line, replacing the oldest line if the buffer is full
+	private void newLine() {
+		if (count < lines.length)
+			count++;
+		else
+			head = (head + 1) % lines.length;
+		int last = index(count - 1);
+		lines[last] = "";
+		advances[last] = 0;
+		// keep showing the same lines if the view is scrolled back
+		if (offset > 0)
+			offset = Math.min(offset + 1, maxOffset());
+	}
+	private int maxOffset() {
+		return Math.max(count - maxStackSize, 0);
 	}
 	public void println(String text) {
 		print(text);
-		stack.add("");
-		if (stack.size() > maxStackSize) {
-			stack.remove(0);
-		}
+		advanceLine();
 	}
 	public void advanceLine() {
-		stack.add("");
-		if (stack.size() > maxStackSize) {
-			stack.remove(0);
+		synchronized (LINE_LOCK) {
+			newLine();
 		}
 	}
 	public void clear() {
-		stack.clear();
-		stack.add("");
+		synchronized (LINE_LOCK) {
+			head = 0;
+			count = 1;
+			offset = 0;
+			lines[0] = "";
+			advances[0] = 0;
+		}
 		lastColor = defaultTextColor;
 	}
+	// scrolls the view back (negative) or forward (positive) through the scrollback
+	public void scroll(int amount) {
+		synchronized (LINE_LOCK) {
+			offset = Math.max(Math.min(offset - amount, maxOffset()), 0);
+		}
+		repaint();
+	}
+	public int getScroll() {
+		synchronized (LINE_LOCK) {
+			return offset;
+		}
+	}
 	@Override
 	public CommandExecutor createListener() {
 		return (sender, text) -> {
@@ -184,17 +217,30 @@ public class ConsoleTextArea extends ConsoleComponent implements WritableCompone
 		};
 	}
 	protected int currentLine() {
-		return stack.size() == 0 ? 0 : stack.size() - 1;
+		synchronized (LINE_LOCK) {
+			return count - 1;
+		}
 	}
 	protected String getLastLine() {
-		return stack.size() == 0 ? "" : stack.get(currentLine());
+		synchronized (LINE_LOCK) {
+			return lines[index(count - 1)];
+		}
 	}
 	@Override
 	public void paint(CanvasGraphics g, String context) {
+		String[] visible;
+		synchronized (LINE_LOCK) {
+			int rows = Math.min(count, maxStackSize);
+			int first = count - rows - offset;
+			visible = new String[rows];
+			for (int t = 0; t < rows; t++) {
+				visible[t] = lines[index(first + t)];
+			}
+		}
 		g.setFont(font);
 		g.drawBackground();
-		for (int t = 0; t < stack.size(); t++) {
-			lastColor = g.drawFormatted(0, (t * textHeight) + MARGIN, lastColor, stack.get(t));
+		for (int t = 0; t < visible.length; t++) {
+			lastColor = g.drawFormatted(0, (t * textHeight) + MARGIN, lastColor, visible[t]);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+
+Map id translations for a single context (player), from global map ids to the ids
+that the client sees.
+
+Translations are stored in primitive arrays indexed by id (global -> client, and the
+inverse), so translating an id is a single array read. Translation happens for every
+map and metadata packet, so reads don't lock: changes are made under the allocation lock
+in the console handler, to a private copy of the table that is published through a single
+volatile write. A table that readers can see is never written to, so they either see
+every change or none of them (a reader seeing a table half way through being remapped
+would send map packets for the wrong ids). Changes that belong together are made in a
+batch, and published at once when the batch ends.
+
+Client ids that are in use are tracked in a bitset as well, so finding a free client id
+is a jump to the next clear bit instead of checking every id in order. Client ids that
+can't be used anymore (maps the client has seen under another id) stay reserved.
+
+ */
+class ContextTable {
+
+	private static final short NONE = -1;
+	// client ids that are reserved, and not mapped to any global id
+	private static final short RESERVED = -2;
+
+	// global id -> client id, never written to once it is published
+	private volatile short[] clients = empty(64);
+	// the copy of the table that changes are made to, before it is published
+	private short[] edit = null;
+	// amount of batches that have been started and not ended yet
+	private int batch = 0;
+	// client id -> global id, only used while holding the allocation lock
+	private short[] globals = empty(64);
+	private final BitSet used = new BitSet();
+
+	private static short[] empty(int size) {
+		short[] arr = new short[size];
+		Arrays.fill(arr, NONE);
+		return arr;
+	}
+
+	private static short[] grow(short[] arr, int index) {
+		if (index < arr.length)
+			return arr;
+		int size = arr.length;
+		while (size <= index)
+			size <<= 1;
+		short[] larger = Arrays.copyOf(arr, size);
+		Arrays.fill(larger, arr.length, size, NONE);
+		return larger;
+	}
+
+	// returns the client id for the global id, or -1 if there is none. Safe to call from any thread.
+	short translate(short global) {
+		short[] table = clients;
+		return global >= 0 && global < table.length ? table[global] : NONE;
+	}
+
+	boolean contains(short global) {
+		return translate(global) != NONE;
+	}
+
+	// Starts a batch of changes, nothing is published until the batch ends. Batches can be nested.
+	void begin() {
+		batch++;
+	}
+
+	void end() {
+		if (batch > 0)
+			batch--;
+		publish();
+	}
+
+	// the table as it is with the changes made so far, only used while holding the allocation lock
+	private short[] current() {
+		return edit != null ? edit : clients;
+	}
+
+	// returns the private copy of the table, large enough to hold the given global id
+	private short[] edit(int global) {
+		if (edit == null)
+			edit = clients.clone();
+		edit = grow(edit, global);
+		return edit;
+	}
+
+	private void publish() {
+		if (batch == 0 && edit != null) {
+			clients = edit;
+			edit = null;
+		}
+	}
+
+	void put(short global, short client) {
+		unmap(global);
+		globals = grow(globals, client);
+		if (globals[client] >= 0)
+			throw new IllegalArgumentException("client id already mapped: " + client);
+		globals[client] = global;
+		used.set(client);
+		edit(global)[global] = client;
+		publish();
+	}
+
+	void remove(short global) {
+		unmap(global);
+		publish();
+	}
+
+	private void unmap(short global) {
+		short[] table = current();
+		if (global < 0 || global >= table.length || table[global] == NONE)
+			return;
+		short client = table[global];
+		globals[client] = NONE;
+		used.clear(client);
+		edit(global)[global] = NONE;
+	}
+
+	// maps the global id to the lowest unused client id (at or after the given id)
+	short map(short global, short from) {
+		short[] table = current();
+		if (global >= 0 && global < table.length && table[global] != NONE)
+			return table[global];
+		int client = used.nextClearBit(from);
+		if (client > Short.MAX_VALUE)
+			return Short.MAX_VALUE;
+		put(global, (short) client);
+		return (short) client;
+	}
+
+	// marks a client id as unusable for this context
+	void reserve(short client) {
+		if (client < 0)
+			return;
+		globals = grow(globals, client);
+		if (globals[client] >= 0)
+			remove(globals[client]);
+		globals[client] = RESERVED;
+		used.set(client);
+	}
+
+	// Reserves every client id that is currently mapped, so the global ids can be mapped to new client
+	// ids. This should be done in a batch with the new mappings, otherwise readers see an empty table.
+	void reserveAll() {
+		for (int client = used.nextSetBit(0); client >= 0; client = used.nextSetBit(client + 1)) {
+			globals[client] = RESERVED;
+		}
+		edit = empty(current().length);
+		publish();
+	}
+
+	// every client id that is mapped or reserved
+	short[] clientIds() {
+		short[] arr = new short[used.cardinality()];
+		int index = 0;
+		for (int client = used.nextSetBit(0); client >= 0; client = used.nextSetBit(client + 1)) {
+			arr[index++] = (short) client;
+		}
+		return arr;
+	}
+}
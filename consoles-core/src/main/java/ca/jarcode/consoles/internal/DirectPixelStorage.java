@@ -0,0 +1,131 @@
+package ca.jarcode.consoles.internal;
+
+import ca.jarcode.consoles.util.unsafe.UnsafeTools;
+import sun.misc.Unsafe;
+
+import java.util.Arrays;
+
+/*
+
+Off-heap pixel storage. All tiles for a context are kept in a single contiguous slab
+of native memory, outside of the view of the garbage collector.
+
+The memory is freed as soon as the storage is released (when the player quits, or the
+console is removed), instead of waiting for the JVM to collect a direct buffer.
+
+ */
+class DirectPixelStorage implements PixelStorage {
+
+	private static final Unsafe UNSAFE = UnsafeTools.getUnsafe();
+
+	static boolean supported() {
+		return UNSAFE != null;
+	}
+
+	private long address;
+	// the version of each tile, and whether it was written to since its version was last looked up
+	private final long[] versions;
+	private final boolean[] changed;
+
+	DirectPixelStorage(int tiles) {
+		versions = new long[tiles];
+		changed = new boolean[tiles];
+		Arrays.fill(changed, true);
+		long size = (long) tiles * TILE_AREA;
+		address = UNSAFE.allocateMemory(size);
+		// native memory is not zeroed like arrays are
+		UNSAFE.setMemory(address, size, (byte) 0);
+	}
+
+	@Override
+	public byte get(int tile, int index) {
+		return UNSAFE.getByte(address + ((long) tile * TILE_AREA) + index);
+	}
+
+	@Override
+	public void set(int tile, int index, byte b) {
+		UNSAFE.putByte(address + ((long) tile * TILE_AREA) + index, b);
+		changed[tile] = true;
+	}
+
+	@Override
+	public byte[] tile(int tile) {
+		byte[] arr = new byte[TILE_AREA];
+		UNSAFE.copyMemory(null, address + ((long) tile * TILE_AREA), arr, Unsafe.ARRAY_BYTE_BASE_OFFSET, TILE_AREA);
+		return arr;
+	}
+
+	// compares eight bytes at a time, straight from native memory (or the other storage's array)
+	@Override
+	public boolean tileEquals(int tile, PixelStorage other, int otherTile) {
+		long start = address + ((long) tile * TILE_AREA);
+		Object base;
+		long offset;
+		if (other instanceof DirectPixelStorage) {
+			base = null;
+			offset = ((DirectPixelStorage) other).address + ((long) otherTile * TILE_AREA);
+		}
+		else {
+			// heap storage passes back its actual array here
+			base = other.tile(otherTile);
+			offset = Unsafe.ARRAY_BYTE_BASE_OFFSET;
+		}
+		int i = 0;
+		for (; i + 8 <= TILE_AREA; i += 8) {
+			if (UNSAFE.getLong(start + i) != UNSAFE.getLong(base, offset + i))
+				return false;
+		}
+		for (; i < TILE_AREA; i++) {
+			if (UNSAFE.getByte(start + i) != UNSAFE.getByte(base, offset + i))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public byte[] region(int tile, int x, int y, int w, int h) {
+		byte[] arr = new byte[w * h];
+		long start = address + ((long) tile * TILE_AREA);
+		for (int row = 0; row < h; row++) {
+			UNSAFE.copyMemory(null, start + x + ((y + row) * ConsolePixelBuffer.SIZE),
+					arr, Unsafe.ARRAY_BYTE_BASE_OFFSET + (row * w), w);
+		}
+		return arr;
+	}
+
+	@Override
+	public void write(int tile, byte[] data) {
+		UNSAFE.copyMemory(data, Unsafe.ARRAY_BYTE_BASE_OFFSET, null, address + ((long) tile * TILE_AREA), TILE_AREA);
+		changed[tile] = true;
+	}
+
+	@Override
+	public void write(int tile, int index, byte[] data, int offset, int length) {
+		UNSAFE.copyMemory(data, Unsafe.ARRAY_BYTE_BASE_OFFSET + offset, null,
+				address + ((long) tile * TILE_AREA) + index, length);
+		changed[tile] = true;
+	}
+
+	@Override
+	public void fill(int tile, int index, int length, byte b) {
+		UNSAFE.setMemory(address + ((long) tile * TILE_AREA) + index, length, b);
+		changed[tile] = true;
+	}
+
+	@Override
+	public long version(int tile) {
+		if (changed[tile]) {
+			versions[tile] = VERSIONS.incrementAndGet();
+			changed[tile] = false;
+		}
+		return versions[tile];
+	}
+
+	@Override
+	public void release() {
+		if (address != 0) {
+			UNSAFE.freeMemory(address);
+			address = 0;
+		}
+	}
+}
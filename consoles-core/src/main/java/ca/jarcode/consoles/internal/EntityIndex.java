@@ -0,0 +1,105 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+
+Maps item frame entity ids to the console they belong to.
+
+This is read from the netty threads for every entity metadata packet, so lookups
+never lock. The table is an open-addressed array of primitive ids that gets rebuilt
+and swapped in whenever a console is created or removed, which happens rarely
+compared to how often it is read.
+
+ */
+class EntityIndex {
+
+	private volatile Table table = new Table(16);
+
+	ManagedConsole get(int entityId) {
+		Table current = table;
+		int mask = current.ids.length - 1;
+		int at = hash(entityId) & mask;
+		while (true) {
+			ManagedConsole console = current.consoles[at];
+			if (console == null)
+				return null;
+			if (current.ids[at] == entityId)
+				return console;
+			at = (at + 1) & mask;
+		}
+	}
+
+	boolean contains(int entityId) {
+		return get(entityId) != null;
+	}
+
+	synchronized void add(ManagedConsole console, Iterable<Integer> entityIds) {
+		List<Integer> ids = new ArrayList<>();
+		List<ManagedConsole> consoles = new ArrayList<>();
+		table.collect(ids, consoles, null);
+		for (int id : entityIds) {
+			ids.add(id);
+			consoles.add(console);
+		}
+		table = Table.of(ids, consoles);
+	}
+
+	synchronized void remove(ManagedConsole console) {
+		List<Integer> ids = new ArrayList<>();
+		List<ManagedConsole> consoles = new ArrayList<>();
+		table.collect(ids, consoles, console);
+		table = Table.of(ids, consoles);
+	}
+
+	synchronized void clear() {
+		table = new Table(16);
+	}
+
+	// entity ids are handed out sequentially, so spread them out a bit
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static class Table {
+
+		final int[] ids;
+		// null entries mark empty slots
+		final ManagedConsole[] consoles;
+
+		Table(int capacity) {
+			ids = new int[capacity];
+			consoles = new ManagedConsole[capacity];
+		}
+
+		static Table of(List<Integer> ids, List<ManagedConsole> consoles) {
+			// keep the table at most half full
+			int capacity = 16;
+			while (capacity < ids.size() * 2)
+				capacity <<= 1;
+			Table table = new Table(capacity);
+			int mask = capacity - 1;
+			for (int t = 0; t < ids.size(); t++) {
+				int id = ids.get(t);
+				int at = hash(id) & mask;
+				while (table.consoles[at] != null && table.ids[at] != id)
+					at = (at + 1) & mask;
+				table.ids[at] = id;
+				table.consoles[at] = consoles.get(t);
+			}
+			return table;
+		}
+
+		// copies every entry, except the ones for the excluded console
+		void collect(List<Integer> ids, List<ManagedConsole> consoles, ManagedConsole exclude) {
+			for (int t = 0; t < this.ids.length; t++) {
+				if (this.consoles[t] != null && this.consoles[t] != exclude) {
+					ids.add(this.ids[t]);
+					consoles.add(this.consoles[t]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+
+Moves data between console feeds and their streams, for every feed on the server.
+
+Every feed used to have its own thread that checked its streams every 50ms, so a server
+with a lot of terminals had just as many threads waking up twenty times a second, and
+output always showed up with a delay. Feeds are now handled by a small, fixed amount of
+threads, and are only handled when there is something to do.
+
+Streams that implement FeedSource tell the pump when data arrives (or the stream ends).
+Any other stream can't do that, so feeds reading from them are checked on an interval,
+the same way the old feed threads did.
+
+Output going the other way is queued in each feed, and flushed by the main thread once
+every tick. Feeds used to schedule a task (and a repaint) for every chunk of output, so
+a program printing in a loop could queue thousands of tasks a second.
+
+ */
+public class FeedPump {
+
+	// amount of threads used to handle console I/O, set from the configuration
+	public static int threads = 2;
+
+	// how often feeds with streams that can't notify the pump are checked, in milliseconds
+	private static final long POLL_INTERVAL = 50;
+
+	private static FeedPump instance;
+
+	// feeds with output waiting to be flushed by the main thread
+	private static final ConcurrentLinkedQueue<ConsoleFeed> flushing = new ConcurrentLinkedQueue<>();
+	// output statistics, only written to by the main thread
+	private static volatile int lastFlushed = 0;
+	private static volatile int peakDepth = 0;
+	private static volatile long totalFlushed = 0;
+
+	public static synchronized FeedPump getInstance() {
+		if (instance == null)
+			instance = new FeedPump(threads);
+		return instance;
+	}
+
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.executor.shutdownNow();
+			instance = null;
+		}
+	}
+
+	static void queueFlush(ConsoleFeed feed) {
+		if (feed.flushQueued.compareAndSet(false, true))
+			flushing.add(feed);
+	}
+
+	// Prints the queued output of every feed, called by the main thread every tick
+	public static void flush() {
+		int flushed = 0;
+		// feeds that are queued again while flushing are left for the next tick
+		for (int t = flushing.size(); t > 0; t--) {
+			ConsoleFeed feed = flushing.poll();
+			if (feed == null)
+				break;
+			feed.flushQueued.set(false);
+			int count = feed.flush();
+			if (count > peakDepth)
+				peakDepth = count;
+			flushed += count;
+		}
+		lastFlushed = flushed;
+		totalFlushed += flushed;
+	}
+
+	// amount of feeds waiting for their output to be flushed
+	public static int getQueuedFeeds() {
+		return flushing.size();
+	}
+	// amount of chunks of output waiting to be printed, across all feeds
+	public static int getQueuedOutput() {
+		int total = 0;
+		for (ConsoleFeed feed : flushing) {
+			total += feed.getQueuedOutput();
+		}
+		return total;
+	}
+	// amount of chunks of output printed in the last tick
+	public static int getLastFlushed() {
+		return lastFlushed;
+	}
+	// the most chunks of output that a single feed had queued up in one tick
+	public static int getPeakDepth() {
+		return peakDepth;
+	}
+	public static long getTotalFlushed() {
+		return totalFlushed;
+	}
+
+	private final ScheduledExecutorService executor;
+	// feeds that have to be checked on an interval
+	private final Set<ConsoleFeed> polled = ConcurrentHashMap.newKeySet();
+
+	private FeedPump(int threads) {
+		AtomicInteger count = new AtomicInteger(0);
+		executor = Executors.newScheduledThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.setName("Console IO Thread #" + count.incrementAndGet());
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(() -> polled.forEach(this::signal),
+				POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	void register(ConsoleFeed feed, Object in) {
+		if (in instanceof ConsoleFeed.FeedSource)
+			((ConsoleFeed.FeedSource) in).setDataListener(() -> signal(feed));
+		else
+			polled.add(feed);
+		signal(feed);
+	}
+
+	void unregister(ConsoleFeed feed, Object in) {
+		if (in instanceof ConsoleFeed.FeedSource)
+			((ConsoleFeed.FeedSource) in).setDataListener(null);
+		else
+			polled.remove(feed);
+	}
+
+	// Queues the feed to be handled. Signals for a feed that is already queued are merged
+	// together, so a program writing one byte at a time doesn't flood the pump.
+	void signal(ConsoleFeed feed) {
+		if (feed.queued.compareAndSet(false, true)) {
+			try {
+				executor.execute(() -> {
+					feed.queued.set(false);
+					feed.pump();
+				});
+			}
+			// the plugin is being disabled
+			catch (RejectedExecutionException e) {
+				feed.queued.set(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package ca.jarcode.consoles.internal;
+
+import org.bukkit.map.MapFont;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+
+Pre-rasterized characters for a font.
+
+Sprites in bukkit fonts are stored as a boolean per pixel, and drawing text used to
+check every single pixel of every character. Here each character is converted once into
+horizontal runs of lit pixels for every row, so text can be written to the pixel buffer a
+whole run at a time.
+
+Glyphs are created lazily (fonts don't have a way to list their characters), and are
+never changed afterwards, so they can be shared between painting threads.
+
+ */
+public class GlyphAtlas {
+
+	private static final Map<MapFont, GlyphAtlas> ATLASES = Collections.synchronizedMap(new WeakHashMap<>());
+
+	public static GlyphAtlas of(MapFont font) {
+		return ATLASES.computeIfAbsent(font, GlyphAtlas::new);
+	}
+
+	private final MapFont font;
+	// glyphs in pages of 256 characters
+	private final Glyph[][] pages = new Glyph[256][];
+
+	private GlyphAtlas(MapFont font) {
+		this.font = font;
+	}
+
+	// returns null if the font doesn't have this character
+	public Glyph get(char c) {
+		Glyph[] page = pages[c >> 8];
+		if (page == null) {
+			page = new Glyph[256];
+			pages[c >> 8] = page;
+		}
+		Glyph glyph = page[c & 0xFF];
+		if (glyph == null) {
+			MapFont.CharacterSprite sprite = font.getChar(c);
+			if (sprite == null)
+				return null;
+			glyph = new Glyph(sprite);
+			page[c & 0xFF] = glyph;
+		}
+		return glyph;
+	}
+
+	// horizontal space taken up by a character, including the pixel of spacing after it
+	public int advance(char c) {
+		Glyph glyph = get(c);
+		return glyph == null ? 0 : glyph.width + 1;
+	}
+
+	public static class Glyph {
+
+		public final MapFont.CharacterSprite sprite;
+		public final int width, height;
+		// for every row, pairs of (start, length) for each run of lit pixels
+		final int[][] runs;
+
+		private Glyph(MapFont.CharacterSprite sprite) {
+			this.sprite = sprite;
+			width = sprite.getWidth();
+			height = sprite.getHeight();
+			runs = new int[height][];
+			int[] row = new int[width + 1];
+			for (int j = 0; j < height; j++) {
+				int count = 0;
+				int k = 0;
+				while (k < width) {
+					if (sprite.get(j, k)) {
+						int start = k;
+						while (k < width && sprite.get(j, k))
+							k++;
+						row[count++] = start;
+						row[count++] = k - start;
+					}
+					else k++;
+				}
+				runs[j] = new int[count];
+				System.arraycopy(row, 0, runs[j], 0, count);
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.Arrays;
+
+/*
+
+Pixel storage that keeps one array per tile on the heap. This is how pixel data was
+always stored, and is still the default.
+
+ */
+class HeapPixelStorage implements PixelStorage {
+
+	private byte[][] tiles;
+	// the version of each tile, and whether it was written to since its version was last looked up
+	private final long[] versions;
+	private final boolean[] changed;
+
+	HeapPixelStorage(int tiles) {
+		this.tiles = new byte[tiles][TILE_AREA];
+		versions = new long[tiles];
+		changed = new boolean[tiles];
+		Arrays.fill(changed, true);
+	}
+
+	@Override
+	public byte get(int tile, int index) {
+		return tiles[tile][index];
+	}
+
+	@Override
+	public void set(int tile, int index, byte b) {
+		tiles[tile][index] = b;
+		changed[tile] = true;
+	}
+
+	// we pass back the actual section here, so packets can be made without copying the tile
+	@Override
+	public byte[] tile(int tile) {
+		return tiles[tile];
+	}
+
+	@Override
+	public boolean tileEquals(int tile, PixelStorage other, int otherTile) {
+		// direct storage can compare against our array without copying its own tile
+		if (other instanceof DirectPixelStorage)
+			return other.tileEquals(otherTile, this, tile);
+		return Arrays.equals(tiles[tile], other.tile(otherTile));
+	}
+
+	@Override
+	public byte[] region(int tile, int x, int y, int w, int h) {
+		byte[] arr = new byte[w * h];
+		for (int row = 0; row < h; row++) {
+			System.arraycopy(tiles[tile], x + ((y + row) * ConsolePixelBuffer.SIZE), arr, row * w, w);
+		}
+		return arr;
+	}
+
+	@Override
+	public void write(int tile, byte[] data) {
+		System.arraycopy(data, 0, tiles[tile], 0, TILE_AREA);
+		changed[tile] = true;
+	}
+
+	@Override
+	public void write(int tile, int index, byte[] data, int offset, int length) {
+		System.arraycopy(data, offset, tiles[tile], index, length);
+		changed[tile] = true;
+	}
+
+	@Override
+	public void fill(int tile, int index, int length, byte b) {
+		Arrays.fill(tiles[tile], index, index + length, b);
+		changed[tile] = true;
+	}
+
+	@Override
+	public long version(int tile) {
+		if (changed[tile]) {
+			versions[tile] = VERSIONS.incrementAndGet();
+			changed[tile] = false;
+		}
+		return versions[tile];
+	}
+
+	@Override
+	public void release() {
+		tiles = null;
+	}
+}
@@ -2,10 +2,6 @@ package ca.jarcode.consoles.internal;
 
 import ca.jarcode.consoles.CColor;
 import ca.jarcode.consoles.api.nms.CommandExecutor;
-import com.google.common.base.Joiner;
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import ca.jarcode.consoles.api.CanvasGraphics;
 import ca.jarcode.consoles.util.MonospacedMinecraftFont;
 import ca.jarcode.consoles.api.Position2D;
@@ -14,16 +10,20 @@ import org.bukkit.entity.Player;
 import org.bukkit.map.MapFont;
 import org.bukkit.map.MinecraftFont;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /*
 
 A more complex version of the text area component that has indexed lines.
 
+Text is kept in a document (a tree of lines), and only the lines that are visible are
+wrapped and laid out into rows. Changing the text or scrolling doesn't have to touch any
+of the lines outside of the view, no matter how long the text is.
+
  */
 
 public class IndexedConsoleTextArea extends ConsoleComponent implements WritableComponent {
@@ -36,18 +36,15 @@ public class IndexedConsoleTextArea extends ConsoleComponent implements Writable
 	protected MapFont font = MonospacedMinecraftFont.FONT;
 	protected MapFont numberFont = MinecraftFont.Font;
 	protected int textHeight = font.getHeight() + 1;
-	protected volatile Multimap<Integer, String> stack = createStack();
+	// the text, and the number of the first line that is shown
+	protected TextDocument document = new TextDocument("");
+	protected int top = 1;
+	// the rows that are laid out, each row is a (wrapped) part of a line
+	protected volatile Row[] rows = { new Row(1, "") };
 	protected int maxStackSize;
 	private int maxWidth;
 	protected byte lastColor = 32;
 
-	private static Multimap<Integer, String> createStack() {
-		return Multimaps.synchronizedMultimap(LinkedHashMultimap.create());
-	}
-
-	{
-		stack.put(1, "");
-	}
 	public void setFont(MapFont font) {
 		this.font = font;
 	}
@@ -62,41 +59,12 @@ public class IndexedConsoleTextArea extends ConsoleComponent implements Writable
 		renderer.putComponent(new Position2D(2, 2), this);
 	}
 	public void setText(String text) {
-		stack.clear();
-		print(text);
+		setText(text, 1);
 	}
 	public void setText(String text, int startingLine) {
-		stack.clear();
-		stack.put(startingLine, "");
-
-		List<String> list = new ArrayList<>();
-		int skipped = 0, last = 0, height = 0;
-		for (int t = 0; t < text.length(); t++) {
-			char c = text.charAt(t);
-			if (c == '\n') {
-				if (skipped >= startingLine - 1) {
-					String entry = text.substring(last, t);
-					height += lineAmount(entry, false);
-					list.add(entry);
-					if (height >= maxStackSize)
-						break;
-				}
-				else skipped++;
-				last = t + 1;
-			}
-		}
-		if (last != text.length() && height < maxStackSize) {
-			String entry = text.substring(last, text.length());
-			height += lineAmount(entry, false);
-			if (height < maxStackSize)
-				list.add(entry);
-		}
-		String after = Joiner.on("\n").join(list);
-		if (startingLine != 1 && after.isEmpty()) {
-			stack.clear();
-			return;
-		}
-		print(after);
+		document = new TextDocument(text.replace("\t", "    "));
+		top = startingLine < 1 ? 1 : startingLine;
+		layout();
 	}
 	public IndexedConsoleTextArea(int w, int h, ConsoleRenderer renderer) {
 		super(w, h, renderer);
@@ -105,53 +73,78 @@ public class IndexedConsoleTextArea extends ConsoleComponent implements Writable
 	}
 	public void print(String text) {
 		text = text.replace("\t", "    ");
-		if (text.contains("\n")) {
-			section(text, this::printContent, this::advanceLine, "\n", true);
-			return;
+		int line = document.getLineCount() - 1;
+		document.insert(line, document.getLine(line).length(), text);
+		changed(line);
+	}
+	// lays out the visible lines of the document again, if the given line (index) is visible
+	private void changed(int line) {
+		if (rows.length < maxStackSize || line <= rows[rows.length - 1].line - 1)
+			layout();
+	}
+	// lays out the lines that are visible in the document
+	protected void layout() {
+		layout(document.lines(top - 1, top - 1 + maxStackSize), top);
+	}
+	// Wraps lines into rows until there is no more room, the lines are numbered starting
+	// with the given number.
+	protected void layout(List<String> lines, int number) {
+		List<Row> list = new ArrayList<>();
+		for (String line : lines) {
+			if (list.size() >= maxStackSize)
+				break;
+			wrap(line, number++, list);
 		}
-		printContent(text);
-	}
-	// needlessly complex
-	private void removeFirst() {
-		Multimap<Integer, String> cached = LinkedHashMultimap.create();
-		stack.entries().stream()
-				.skip(1)
-				.forEach(e -> cached.put(e.getKey(), e.getValue()));
-		stack.clear();
-		stack = Multimaps.synchronizedMultimap(cached);
-	}
-	private void removeLast(int amt) {
-		Multimap<Integer, String> cached = LinkedHashMultimap.create();
-		stack.entries().stream()
-				.limit(stack.size() - amt > 0 ? stack.size() - amt : 0)
-				.forEach(e -> cached.put(e.getKey(), e.getValue()));
-		stack.clear();
-		stack = Multimaps.synchronizedMultimap(cached);
-	}
-	private void advance() {
-		int line = highestLine();
-		stack.put(line, "");
-	}
-	private void nextLine() {
-		int line = highestLine();
-		stack.put(line + 1, "");
-	}
-	protected int highestLine() {
-		return stack.keySet().stream().max((o1, o2) -> o1 - o2).orElseGet(() -> 1);
+		rows = list.toArray(new Row[list.size()]);
 	}
-	private void appendToCurrentStack(String str) {
-		int line = highestLine();
-		ArrayList<String> list =
-				stack.get(line).stream().collect(Collectors.toCollection(ArrayList::new));
-		if (list.size() > 0) {
-			list.set(list.size() - 1, list.get(list.size() - 1) + str);
-			stack.removeAll(line);
-			for (String s : list)
-				stack.put(line, s);
-		}
-		else {
-			stack.put(line, str);
+	// wraps a line into rows, the same way a normal text area wraps text
+	private void wrap(String text, int number, List<Row> out) {
+		GlyphAtlas atlas = GlyphAtlas.of(font);
+		text = ManagedConsole.removeUnsupportedCharacters(text);
+		StringBuilder row = new StringBuilder();
+		// width of the row so far, including the spacing after each character
+		int used = 0;
+		while (true) {
+			int room = maxWidth + 1 - used;
+			// measure the text until it doesn't fit, remembering the last space that did
+			int total = 0, fit = -1, fitAdvance = 0, t;
+			for (t = 0; t < text.length() && total <= room; t++) {
+				char c = text.charAt(t);
+				if (c == ' ') {
+					fit = t;
+					fitAdvance = total;
+				}
+				if (c != '\u00A7' && (!CColor.colorCharRange(c) || t == 0 || text.charAt(t - 1) != '\u00A7'))
+					total += atlas.advance(c);
+			}
+			// fit
+			if (total <= room) {
+				row.append(text);
+				break;
+			}
+			// can't fit
+			if (fit == -1) {
+				// row is empty, split the word at the character that doesn't fit
+				if (used == 0) {
+					int end = Math.max(t - 1, 1);
+					row.append(text, 0, end);
+					text = text.substring(end);
+				}
+				// otherwise, try to fit into new row
+				out.add(new Row(number, row.toString()));
+				row.setLength(0);
+				used = 0;
+				if (out.size() >= maxStackSize)
+					return;
+			}
+			// partial fit, the words that fit are added with the space after them
+			else {
+				row.append(text, 0, fit + 1);
+				used += fitAdvance + atlas.advance(' ');
+				text = text.substring(fit + 1);
+			}
 		}
+		out.add(new Row(number, row.toString()));
 	}
 	// used to split on newlines and handle accordingly
 	protected void section(String text, Consumer<String> handleText, Runnable onSplit, String regex, boolean ignoreEmpty) {
@@ -166,143 +159,19 @@ public class IndexedConsoleTextArea extends ConsoleComponent implements Writable
 		}
 		handleText.accept(text.substring(first, text.length()));
 	}
-	private int lineAmount(String line, boolean stripped) {
-		if (!stripped)
-			line = ManagedConsole.removeUnsupportedCharacters(CColor.strip(line));
-		int count = 1;
-		if (font.getWidth(line) > maxWidth) {
-			String[] split = line.split(" ");
-			List<String> list = new ArrayList<>();
-			int index = 0;
-			// checks for split location (spaces)
-			for (String s : split) {
-				list.add(s);
-				String comb = Joiner.on(" ").join(list);
-				if (font.getWidth(comb) <= maxWidth) {
-					index++;
-				}
-				else break;
-			}
-			// no fit, section by max width at index
-			if (index == 0) {
-				int t;
-				for (t = line.length(); t > 0; t--) {
-					if (font.getWidth(line.substring(0, t)) <= maxWidth)
-						break;
-				}
-				// add other portion
-				count += lineAmount(line.substring(t, line.length()), true);
-			}
-
-			// partial fit, break on space
-			else {
-				int in = 0;
-				for (int t = 0; t < index; t++) {
-					in += split[t].length() + 1;
-				}
-				count += lineAmount(line.substring(in, line.length()), true);
-				/*
-				StringBuilder builder = new StringBuilder();
-				for (int t = index; t < split.length; t++) {
-					builder.append(split[t]);
-					if (t != split.length - 1)
-						builder.append(" ");
-				}
-				//remaining
-				count += lineAmount(builder.toString(), true);
-				*/
-			}
-		}
-		// fit
-		else return 1;
-		return count;
-	}
-	private void printContent(String text) {
-		text = ManagedConsole.removeUnsupportedCharacters(text);
-		String stripped = CColor.strip(text + getLastLine());
-		if (font.getWidth(stripped) > maxWidth) {
-			String[] split = text.split(" ");
-			List<String> list = new ArrayList<>();
-			int index = 0;
-			for (String s : split) {
-				list.add(s);
-				String comb = CColor.strip(Joiner.on(" ").join(list) + getLastLine());
-				if (font.getWidth(comb) <= maxWidth) {
-					index++;
-				}
-				else break;
-			}
-			// can't fit
-			if (index == 0) {
-				// line is empty, can't fit
-				if (CColor.strip(getLastLine()).isEmpty()) {
-					StringBuilder builder = new StringBuilder();
-					StringBuilder check = new StringBuilder();
-					char[] arr = text.toCharArray();
-					int t;
-					for (t = 0; t < text.length(); t++) {
-						if (arr[t] != '\u00A7'
-								&& (!CColor.colorCharRange(arr[t]) || t == 0 || arr[t - 1] != '\u00A7')) {
-							check.append(arr[t]);
-							String bare = check.toString();
-							if (font.getWidth(bare) > maxWidth) {
-								break;
-							} else builder.append(arr[t]);
-						}
-						else builder.append(arr[t]);
-					}
-					// add sectioned
-					printContent(builder.toString());
-					advance();
-					// add other portion
-					printContent(text.substring(t, text.length()));
-				}
-				// line isn't empty, try to fit into new line
-				else {
-					advance();
-					printContent(text);
-				}
-			}
-			// partial fit
-			else {
-				StringBuilder builder = new StringBuilder();
-				int in = 0;
-				for (int t = 0; t < index; t++) {
-					in += split[t].length() + 1;
-					builder.append(split[t]);
-					builder.append(" ");
-				}
-				//fit text
-				String str = builder.toString();
-				appendToCurrentStack(str);
-
-				// remaining
-				printContent(text.substring(in, text.length()));
-			}
-		}
-		// fit
-		else {
-			appendToCurrentStack(text);
-		}
-		while (stack.size() > maxStackSize) {
-			removeLast(stack.size() - maxStackSize);
-		}
-	}
 	public void println(String text) {
 		print(text);
-		nextLine();
-		if (stack.size() > maxStackSize) {
-			removeLast(stack.size() - maxStackSize);
-		}
+		advanceLine();
 	}
 	public void advanceLine() {
-		nextLine();
-		if (stack.size() > maxStackSize) {
-			removeLast(stack.size() - maxStackSize);
-		}
+		int line = document.getLineCount();
+		document.insertLine(line, "");
+		changed(line);
 	}
 	public void clear() {
-		stack.clear();
+		document = new TextDocument("");
+		top = 1;
+		rows = new Row[0];
 	}
 
 	@Override
@@ -318,20 +187,32 @@ public class IndexedConsoleTextArea extends ConsoleComponent implements Writable
 			return "Sent to console";
 		};
 	}
+	protected int highestLine() {
+		Row[] rows = this.rows;
+		return rows.length == 0 ? 1 : rows[rows.length - 1].line;
+	}
 	protected int currentLine() {
-		return stack.size() == 0 ? 0 : stack.size() - 1;
+		return rows.length == 0 ? 0 : rows.length - 1;
 	}
 	protected int getHighestReadableLine() {
-		Map.Entry<Integer, String> entry =  stack.entries().stream()
-				.filter(v -> !v.getValue().isEmpty())
-				.max((o1, o2) -> o1.getKey() - o2.getKey()).get();
-		return entry == null ? 1 : entry.getKey();
+		Row[] rows = this.rows;
+		for (int t = rows.length - 1; t >= 0; t--) {
+			if (!rows[t].text.isEmpty())
+				return rows[t].line;
+		}
+		return 1;
 	}
 	protected String getLastReadableLine() {
-		return stack.values().stream().filter(str -> !str.isEmpty()).reduce((p, curr) -> curr).orElseGet(() -> "");
+		Row[] rows = this.rows;
+		for (int t = rows.length - 1; t >= 0; t--) {
+			if (!rows[t].text.isEmpty())
+				return rows[t].text;
+		}
+		return "";
 	}
 	protected String getLastLine() {
-		return stack.values().stream().reduce((p, curr) -> curr).orElseGet(() -> "");
+		Row[] rows = this.rows;
+		return rows.length == 0 ? "" : rows[rows.length - 1].text;
 	}
 	@Override
 	public void paint(CanvasGraphics g, String context) {
@@ -339,18 +220,29 @@ public class IndexedConsoleTextArea extends ConsoleComponent implements Writable
 		g.drawBackground();
 		int i = 0;
 		int k = -1;
-		for (Map.Entry<Integer, String> entry : stack.entries()) {
-			if (k != entry.getKey()) {
+		for (Row entry : rows) {
+			if (k != entry.line) {
 				g.setFont(numberFont);
-				String str = ChatColor.GRAY.toString() + (entry.getKey() % 1000) + ChatColor.WHITE;
+				String str = ChatColor.GRAY.toString() + (entry.line % 1000) + ChatColor.WHITE;
 				g.drawFormatted(OFFSET - (numberFont.getWidth(CColor.strip(str)) + MARGIN),
 						(i * textHeight) + H_MARGIN, lastColor, str);
 				g.setFont(font);
-				k = entry.getKey();
+				k = entry.line;
 			}
-			lastColor = g.drawFormatted(OFFSET, (i * textHeight) + H_MARGIN, lastColor, entry.getValue());
+			lastColor = g.drawFormatted(OFFSET, (i * textHeight) + H_MARGIN, lastColor, entry.text);
 			i++;
 		}
 		lastColor = 32;
 	}
+
+	// a row of text, and the number of the line it belongs to
+	protected static class Row {
+		public final int line;
+		public final String text;
+
+		public Row(int line, String text) {
+			this.line = line;
+			this.text = text;
+		}
+	}
 }
@@ -48,8 +48,11 @@ public class ManagedConsole extends ConsoleRenderer {
 		catch (Throwable e) {
 			e.printStackTrace();
 		}
-		if (result)
+		if (result) {
 			super.create(index, face, location);
+			ConsoleHandler.getInstance().index.add(this);
+			ConsoleHandler.getInstance().entities.add(this, entityMap().values());
+		}
 		else throw new ConsoleCreateException("Cancelled by external plugin");
 	}
 	@Override
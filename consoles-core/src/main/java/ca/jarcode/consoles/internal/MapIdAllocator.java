@@ -0,0 +1,54 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/*
+
+Keeps track of which global map ids are in use.
+
+Ids used to be kept in a list, which had to be scanned for every possible starting id
+when allocating a block (and again to remove each id). A bitset lets us jump straight
+between used and unused runs of ids instead.
+
+Not thread safe, access is guarded by the allocation lock in the console handler.
+
+ */
+class MapIdAllocator {
+
+	private final BitSet used = new BitSet();
+
+	// Finds the lowest block of free ids (starting at or after the given id) and marks it as used.
+	// Returns -1 if there isn't a block that is large enough.
+	short allocate(int from, int size) {
+		int start = used.nextClearBit(from);
+		while (true) {
+			int next = used.nextSetBit(start);
+			// the gap between the next used id and the start of this run is big enough
+			if (next == -1 || next - start >= size)
+				break;
+			start = used.nextClearBit(next);
+		}
+		if (start + size - 1 > Short.MAX_VALUE)
+			return -1;
+		used.set(start, start + size);
+		return (short) start;
+	}
+
+	void free(int index, int size) {
+		used.clear(index, index + size);
+	}
+
+	boolean contains(int id) {
+		return id >= 0 && used.get(id);
+	}
+
+	int size() {
+		return used.cardinality();
+	}
+
+	// every allocated id, in order
+	IntStream ids() {
+		return used.stream();
+	}
+}
@@ -6,9 +6,10 @@ import ca.jarcode.consoles.api.nms.ConsolesNMS;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static ca.jarcode.consoles.Lang.lang;
@@ -17,139 +18,338 @@ import static ca.jarcode.consoles.Lang.lang;
 
 The class that handles tasks and requests for repainting and updates
 
+Requests are kept per console, and then per context. Requests for the same console
+and context are merged together until the painter gets to them, so a burst of identical
+requests (ie. from player movement) only results in one paint and one batch of packets.
+
+Consoles are painted at most at their frame rate, repaints requested inside of a frame
+are held back and painted with the next frame. There is also a limit on the amount of
+map packets that can be sent every tick, updates over that limit are sent in the next tick.
+
  */
 public class MapPainter implements Runnable {
 
+	// amount of threads used to paint consoles, set from the configuration. With a single
+	// thread, all consoles are painted in the painting thread itself.
+	public static int workerThreads = 1;
+
+	// default maximum amount of paints per second for each console, set from the configuration.
+	// 0 means no limit.
+	public static int frameRate = 10;
+
+	// maximum amount of map packets sent every tick across all consoles, set from the configuration.
+	// 0 means no limit.
+	public static int packetBudget = 400;
+
 	private final Object LOCK = new Object();
-	private ArrayList<StackEntry> stack = new ArrayList<>();
+	// pending requests for every console, in the order they were first requested
+	private LinkedHashMap<ConsoleRenderer, ConsoleRequests> pending = new LinkedHashMap<>();
+	// the earliest time each console can have its requests handled, guarded by the lock
+	private final WeakHashMap<ConsoleRenderer, Long> notBefore = new WeakHashMap<>();
+	// contexts (players) that left the server, requests for them that were already taken by the
+	// painter are dropped instead of painted. Guarded by the lock.
+	private final Set<String> departed = new HashSet<>();
 	private volatile boolean running = false;
 
-	// only in paint thread
-	private String context;
+	// packets sent in the current tick
+	private final Object BUDGET_LOCK = new Object();
+	private long budgetTick = 0;
+	private int budgetUsed = 0;
+
+	// worker pool, only used when painting with more than one thread
+	private ExecutorService workers;
+	// request queues for each console, only accessed in the painting thread
+	private final WeakHashMap<ConsoleRenderer, ConsoleLane> lanes = new WeakHashMap<>();
+
+	// the context being painted in the current thread
+	private final ThreadLocal<String> context = new ThreadLocal<>();
 
 	@Override
 	public void run() {
 		running = true;
+		if (workerThreads > 1) {
+			AtomicInteger count = new AtomicInteger(0);
+			workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				thread.setName("Console Painting Thread #" + count.incrementAndGet());
+				return thread;
+			});
+		}
 		while (running) {
 
 			long at = System.currentTimeMillis();
-			ArrayList<StackEntry> stack;
+			LinkedHashMap<ConsoleRenderer, ConsoleRequests> batch;
 			synchronized (LOCK) {
 				if (System.currentTimeMillis() - at > 20)
 					System.out.println(lang.getString("painter-lock1"));
 
-				while (this.stack.isEmpty()) {
+				// wait until there are requests that can be handled now, or for the
+				// next console that was held back to be ready
+				while ((batch = collect()).isEmpty()) {
 					try {
-						LOCK.wait();
+						LOCK.wait(nextDue());
 					} catch (InterruptedException ignored) {}
 				}
-				stack = this.stack;
-				this.stack = new ArrayList<>();
 			}
 
-			HashMap<ConsoleRenderer, List<String>> painted = new HashMap<>();
-			for (StackEntry entry : stack) {
-				ConsoleRenderer renderer = entry.renderer;
-
-				// check for duplicate paint requests and ignore them
-				List<String> paintedContexts = painted.get(renderer);
-				if (paintedContexts == null) {
-					paintedContexts = new ArrayList<>();
-					painted.put(renderer, paintedContexts);
+			for (ConsoleRequests requests : batch.values()) {
+				if (workers == null) {
+					paint(requests);
 				}
+				// Each console is painted by one worker at a time, but different consoles
+				// are painted in parallel.
+				else {
+					lanes.computeIfAbsent(requests.renderer, renderer -> new ConsoleLane()).offer(requests);
+				}
+			}
+		}
+		if (workers != null)
+			workers.shutdown();
+	}
 
-				at = System.currentTimeMillis();
-				synchronized (renderer.RENDERER_LOCK) {
-					if (System.currentTimeMillis() - at > 20)
-						System.out.println(lang.getString("painter-lock2"));
-					if (entry.type == EntryType.TOGGLE) {
-						for (String context : entry.identifiers) {
-							renderer.getPixelBuffer().resetSwitches(context);
-						}
+	private void paint(ConsoleRequests requests) {
+		ConsoleRenderer renderer = requests.renderer;
+		long at = System.currentTimeMillis();
+		synchronized (renderer.RENDERER_LOCK) {
+			if (System.currentTimeMillis() - at > 20)
+				System.out.println(lang.getString("painter-lock2"));
+			if (requests.repaintToggle) {
+				// removes all contexts in the repaint stack for the buffer
+				// this makes it so that every player who walks in range of the
+				// console will have have it repainted
+				renderer.getPixelBuffer().callRepaint();
+			}
+			for (ContextRequest request : requests.contexts.values()) {
+				if (request.toggle)
+					renderer.getPixelBuffer().markAllDirty(request.context);
+			}
+			// requests can outlive the console, since they can be held back for the next frame or tick
+			if (!renderer.created() || renderer.getPixelBuffer().isRemoved())
+				return;
+			// painting for a player that already quit would create their data in the buffer again
+			synchronized (LOCK) {
+				requests.contexts.keySet().removeIf(departed::contains);
+			}
+			if (requests.repaintToggle) {
+				// the console is being repainted for every player in range, so the base layer
+				// should belong to one of them
+				renderer.getPixelBuffer().rebase(requests.contexts.values().stream()
+						.filter(request -> request.update)
+						.map(request -> request.context)
+						.collect(Collectors.toList()));
+			}
+			for (ContextRequest request : requests.contexts.values()) {
+				if (!request.update)
+					continue;
+				// We only repaint if:
+				// a repaint is required for this context (the content changed)
+				if (renderer.getPixelBuffer().needsRepaint(context.get())
+						// the update requested a repaint (for whatever reason)
+						|| request.paint
+						// if this has not been painted for this player before, and the update allows painting
+						// for new consoles
+						|| (request.paintIfNew && !renderer.getPixelBuffer().contextExists(request.context))) {
+					try {
+						context.set(request.context);
+						at = System.currentTimeMillis();
+						renderer.paint();
+						if (System.currentTimeMillis() - at > 100)
+							Consoles.getInstance().getLogger()
+									.warning(lang.getString("painter-overload") + " (" +
+									(System.currentTimeMillis() - at) + "), class: "
+									+ renderer.getClass() + ", name: " + renderer.type +
+									", contexts: " + requests.contexts.size() + ", identifier: "
+									+ request.context);
 					}
-					else if (entry.type == EntryType.REPAINT_TOGGLE) {
-						// removes all contexts in the repaint stack for the buffer
-						// this makes it so that every player who walks in range of the
-						// console will have have it repainted
-						renderer.getPixelBuffer().callRepaint();
+					catch (Throwable e) {
+						e.printStackTrace();
 					}
-					else if (entry.type == EntryType.UPDATE) {
-						if (renderer.created()) {
-							for (int t = 0; t < entry.connections.length; t++) {
-								if ((
-								// We only repaint if:
-								// a repaint is required for this context (the content changed)
-
-										renderer.getPixelBuffer().needsRepaint(context)
-
-								// the update requested a repaint (for whatever reason)
-
-										|| entry.paint
-
-								// if this has not been painted for this player before, and the update allows painting
-								// for new consoles
-
-								        || (entry.paintIfNew && !renderer.getPixelBuffer()
-										.contextExists(entry.identifiers[t])))
-
-								// And we also do not re-repaint, so if we've already handled a paint
-								// request for this context, we ignore any other ones.
-
-										&& !paintedContexts.contains(entry.identifiers[t])
-
-										){
-									try {
-										context = entry.identifiers[t];
-										at = System.currentTimeMillis();
-										renderer.paint();
-										if (System.currentTimeMillis() - at > 100)
-											Consoles.getInstance().getLogger()
-													.warning(lang.getString("painter-overload") + " (" +
-													(System.currentTimeMillis() - at) + "), class: "
-													+ renderer.getClass() + ", name: " + renderer.type +
-													", index: " + t + ", entry size: " + entry.connections.length
-													+ ", stack size: " + stack.size() + ", identifiers: "
-													+ entry.identifiers[t]);
-									}
-									catch (Throwable e) {
-										e.printStackTrace();
-									}
-									finally {
-										context = null;
-									}
-									paintedContexts.add(entry.identifiers[t]);
-									// add this context back to our list of contexts we have already painted for
-									renderer.getPixelBuffer().switchRepaint(context);
-								}
-								at = System.currentTimeMillis();
-								for (ConsoleMapRenderer map : renderer.renderers()) {
-									// if this request forces updates, toggle switches
-									if (entry.force)
-										map.forceSwitch(entry.identifiers[t]);
-									// send packets
-									map.update(entry.connections[t], entry.identifiers[t]);
-								}
-								if (System.currentTimeMillis() - at > 20)
-									System.out.println(lang.getString("painter-packet-overload"));
-							}
-						}
+					finally {
+						// propagate changes to the shared layer, or drop overlays that aren't needed
+						renderer.getPixelBuffer().finishPaint(request.context);
+						context.remove();
 					}
+					// add this context back to our list of contexts we have already painted for
+					renderer.getPixelBuffer().switchRepaint(context.get());
 				}
+				at = System.currentTimeMillis();
+				ConsoleMapRenderer[] maps = renderer.renderers();
+				// if this request forces updates, mark the entire map as changed
+				if (request.force) {
+					for (ConsoleMapRenderer map : maps)
+						map.forceUpdate(request.context);
+				}
+				for (ConsoleMapRenderer map : maps) {
+					// if we've sent too many packets this tick, leave the rest for the next tick.
+					// the changed areas stay marked, so nothing is lost.
+					if (!hasPacketBudget()) {
+						defer(renderer, request);
+						break;
+					}
+					// send packets
+					if (map.update(request.connection, request.context))
+						usePacketBudget();
+				}
+				if (System.currentTimeMillis() - at > 20)
+					System.out.println(lang.getString("painter-packet-overload"));
 			}
-			stack.clear();
 		}
 	}
 
 	// this is for simplifying painting code so we don't have to supply parameters in paint methods.
-	// must be in paint thread. This is not synchronized to anything.
+	// must be in a paint thread, the context is local to the thread that is painting.
 	public String getPaintContext() {
-		return context;
+		return context.get();
 	}
 
 	public void stop() {
 		running = false;
 	}
 
+	// A queue of requests for a single console. Lanes run on the worker pool, but only on one
+	// worker at a time, so requests for a console are still handled in the order they were made.
+	private class ConsoleLane implements Runnable {
+
+		private ConsoleRequests queued = null;
+		private boolean scheduled = false;
+
+		void offer(ConsoleRequests requests) {
+			synchronized (this) {
+				if (queued == null)
+					queued = requests;
+				else
+					queued.merge(requests);
+				if (scheduled) return;
+				scheduled = true;
+			}
+			workers.execute(this);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				ConsoleRequests next;
+				synchronized (this) {
+					if (queued == null) {
+						scheduled = false;
+						return;
+					}
+					next = queued;
+					queued = null;
+				}
+				try {
+					paint(next);
+				}
+				catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	// must be holding the lock
+	private ConsoleRequests requests(ConsoleRenderer renderer) {
+		return pending.computeIfAbsent(renderer, ConsoleRequests::new);
+	}
+
+	// a new request for a context, the player is (back) on the server. Must be holding the lock.
+	private ContextRequest request(ConsoleRenderer renderer, String context) {
+		departed.remove(context);
+		return requests(renderer).get(context);
+	}
+
+	// Drops every request for a console that has been removed, must be holding the renderer lock
+	// (so that the console isn't being painted, and can't defer anything after this).
+	void forget(ConsoleRenderer renderer) {
+		synchronized (LOCK) {
+			pending.remove(renderer);
+			notBefore.remove(renderer);
+		}
+	}
+
+	// Drops every request for a player that left the server. Requests that were already taken by the
+	// painter are skipped when they are painted.
+	public void forget(String context) {
+		synchronized (LOCK) {
+			departed.add(context);
+			for (ConsoleRequests requests : pending.values()) {
+				requests.contexts.remove(context);
+			}
+		}
+	}
+
+	// Takes all the requests that can be handled right now, leaving the consoles that are
+	// still waiting for their next frame. Must be holding the lock.
+	private LinkedHashMap<ConsoleRenderer, ConsoleRequests> collect() {
+		LinkedHashMap<ConsoleRenderer, ConsoleRequests> batch = new LinkedHashMap<>();
+		long now = System.currentTimeMillis();
+		Iterator<ConsoleRequests> it = pending.values().iterator();
+		while (it.hasNext()) {
+			ConsoleRequests requests = it.next();
+			Long due = notBefore.get(requests.renderer);
+			if (due != null && due > now)
+				continue;
+			it.remove();
+			int fps = requests.renderer.getFrameRate();
+			// start a new frame if this console is going to be painted
+			if (fps > 0 && requests.wantsPaint())
+				notBefore.put(requests.renderer, now + (1000 / fps));
+			else
+				notBefore.remove(requests.renderer);
+			batch.put(requests.renderer, requests);
+		}
+		return batch;
+	}
+
+	// Time to wait until the next console that is being held back is ready, or 0 if there
+	// are none. Must be holding the lock.
+	private long nextDue() {
+		long now = System.currentTimeMillis();
+		long next = 0;
+		for (ConsoleRenderer renderer : pending.keySet()) {
+			Long due = notBefore.get(renderer);
+			if (due != null && due > now && (next == 0 || due - now < next))
+				next = due - now;
+		}
+		return next;
+	}
+
+	// puts an update back for the next tick, used when we run out of packets to send
+	private void defer(ConsoleRenderer renderer, ContextRequest request) {
+		long next = ((System.currentTimeMillis() / 50) + 1) * 50;
+		synchronized (LOCK) {
+			if (departed.contains(request.context))
+				return;
+			requests(renderer).get(request.context).update(request.connection, false, false, false);
+			Long due = notBefore.get(renderer);
+			if (due == null || due < next)
+				notBefore.put(renderer, next);
+			LOCK.notify();
+		}
+	}
+
+	private boolean hasPacketBudget() {
+		if (packetBudget <= 0)
+			return true;
+		synchronized (BUDGET_LOCK) {
+			long tick = System.currentTimeMillis() / 50;
+			if (tick != budgetTick) {
+				budgetTick = tick;
+				budgetUsed = 0;
+			}
+			return budgetUsed < packetBudget;
+		}
+	}
+
+	private void usePacketBudget() {
+		if (packetBudget <= 0)
+			return;
+		synchronized (BUDGET_LOCK) {
+			budgetUsed++;
+		}
+	}
+
 	/**
 	 * Requests a full repaint of the given console. Adjacent players will be sent packets with the new data.
 	 *
@@ -163,23 +363,25 @@ public class MapPainter implements Runnable {
 						&& renderer.pos.distance(player.getLocation()) <= 64)
 				.collect(Collectors.toList());
 
+		ClientConnection[] arr = new ClientConnection[close.size()];
+		for (int t = 0; t < arr.length; t++) {
+			arr[t] = ConsolesNMS.packetInternals.getConnection(close.get(t));
+		}
+
 		synchronized (LOCK) {
+			ConsoleRequests requests = requests(renderer);
 			// repaint switch
-			stack.add(new StackEntry(renderer));
-			ClientConnection[] arr = new ClientConnection[close.size()];
-			String[] names = new String[close.size()];
+			requests.repaintToggle = true;
+			// add update requests
 			for (int t = 0; t < arr.length; t++) {
-				arr[t] = ConsolesNMS.packetInternals.getConnection(close.get(t));
-				names[t] = close.get(t).getName();
+				request(renderer, close.get(t).getName()).update(arr[t], true, false, false);
 			}
-			// add update requests
-			stack.add(new StackEntry(renderer, arr, names, true, false, false));
 			LOCK.notify();
 		}
 	}
 
 	/**
-	 * Toggles all the switches for the pixel buffer in this console. This
+	 * Marks every map in the pixel buffer for this console as changed. This
 	 * guarantees that packets will be sent the next time an update is requested.
 	 *
 	 * @param renderer the console to manipulate
@@ -187,7 +389,10 @@ public class MapPainter implements Runnable {
  	 */
 	public void toggle(ConsoleRenderer renderer, String... contexts) {
 		synchronized (LOCK) {
-			stack.add(new StackEntry(renderer, contexts));
+			ConsoleRequests requests = requests(renderer);
+			for (String context : contexts) {
+				requests.get(context).toggle = true;
+			}
 			LOCK.notify();
 		}
 	}
@@ -213,10 +418,9 @@ public class MapPainter implements Runnable {
 	public void updateFor(ConsoleRenderer renderer, Player player, boolean force, boolean paintIfNew) {
 		if (renderer.pos.getWorld() == player.getWorld() && renderer.pos.distance(player.getLocation()) > 64) return;
 
+		ClientConnection connection = ConsolesNMS.packetInternals.getConnection(player);
 		synchronized (LOCK) {
-			stack.add(new StackEntry(renderer,
-					new ClientConnection[]{ConsolesNMS.packetInternals.getConnection(player)},
-					new String[]{player.getName()}, false, force, paintIfNew));
+			request(renderer, player.getName()).update(connection, false, force, paintIfNew);
 			LOCK.notify();
 		}
 	}
@@ -230,42 +434,68 @@ public class MapPainter implements Runnable {
 	public void repaintFor(ConsoleRenderer renderer, Player player) {
 		if (renderer.pos.distance(player.getLocation()) > 64) return;
 
+		ClientConnection connection = ConsolesNMS.packetInternals.getConnection(player);
 		synchronized (LOCK) {
-			stack.add(new StackEntry(renderer,
-					new ClientConnection[] {ConsolesNMS.packetInternals.getConnection(player)},
-					new String[] {player.getName()}, true, false, false));
+			request(renderer, player.getName()).update(connection, true, false, false);
 			LOCK.notify();
 		}
 	}
-	private class StackEntry {
-		ConsoleRenderer renderer;
-		ClientConnection[] connections;
-		String[] identifiers;
-		boolean paint;
-		boolean paintIfNew;
-		boolean force;
-		EntryType type;
-		public StackEntry(ConsoleRenderer renderer, ClientConnection[] connections,
-		                  String[] identifiers, boolean paint, boolean force, boolean paintIfNew) {
+
+	// all of the pending requests for a single console
+	private static class ConsoleRequests {
+		final ConsoleRenderer renderer;
+		// whether the repaint stack should be cleared
+		boolean repaintToggle = false;
+		final LinkedHashMap<String, ContextRequest> contexts = new LinkedHashMap<>();
+		ConsoleRequests(ConsoleRenderer renderer) {
 			this.renderer = renderer;
-			this.connections = connections;
-			this.identifiers = identifiers;
-			this.paint = paint;
-			this.force = force;
-			this.paintIfNew = paintIfNew;
-			type = EntryType.UPDATE;
 		}
-		public StackEntry(ConsoleRenderer renderer, String... contexts) {
-			this.renderer = renderer;
-			this.identifiers = contexts;
-			type = EntryType.TOGGLE;
+		ContextRequest get(String context) {
+			return contexts.computeIfAbsent(context, ContextRequest::new);
 		}
-		public StackEntry(ConsoleRenderer renderer) {
-			this.renderer = renderer;
-			type = EntryType.REPAINT_TOGGLE;
+		// whether handling these requests is going to repaint the console
+		boolean wantsPaint() {
+			if (repaintToggle)
+				return true;
+			for (ContextRequest request : contexts.values()) {
+				if (request.paint)
+					return true;
+			}
+			return false;
+		}
+		void merge(ConsoleRequests other) {
+			repaintToggle |= other.repaintToggle;
+			for (ContextRequest request : other.contexts.values()) {
+				get(request.context).merge(request);
+			}
 		}
 	}
-	private enum EntryType {
-		UPDATE, TOGGLE, REPAINT_TOGGLE
+
+	// the merged requests for a single console and context
+	private static class ContextRequest {
+		final String context;
+		ClientConnection connection;
+		// mark all maps as changed
+		boolean toggle = false;
+		// paint and/or send packets
+		boolean update = false;
+		boolean paint = false;
+		boolean force = false;
+		boolean paintIfNew = false;
+		ContextRequest(String context) {
+			this.context = context;
+		}
+		void update(ClientConnection connection, boolean paint, boolean force, boolean paintIfNew) {
+			this.connection = connection;
+			this.update = true;
+			this.paint |= paint;
+			this.force |= force;
+			this.paintIfNew |= paintIfNew;
+		}
+		void merge(ContextRequest other) {
+			toggle |= other.toggle;
+			if (other.update)
+				update(other.connection, other.paint, other.force, other.paintIfNew);
+		}
 	}
 }
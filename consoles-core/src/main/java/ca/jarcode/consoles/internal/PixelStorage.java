@@ -0,0 +1,73 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+
+Backing storage for the pixel data of a single context (player) in a console.
+
+Storage is addressed by tile (a single 128x128 map section) and the index of a
+pixel inside of that tile, (x + (y * 128)). Implementations do not perform any
+bounds checking, that is left up to the pixel buffer.
+
+ */
+public interface PixelStorage {
+
+	// amount of pixels in a single tile
+	int TILE_AREA = ConsolePixelBuffer.SIZE * ConsolePixelBuffer.SIZE;
+	// tile versions are taken from here, so no two tiles (in any storage) ever have the same version
+	AtomicLong VERSIONS = new AtomicLong(0);
+
+	byte get(int tile, int index);
+
+	void set(int tile, int index, byte b);
+
+	// Returns the data for the given tile. Implementations that keep their data on the
+	// heap can return the underlying array, otherwise this will be a copy.
+	byte[] tile(int tile);
+
+	// Compares a tile against a tile in another storage, without copying either of them
+	boolean tileEquals(int tile, PixelStorage other, int otherTile);
+
+	// Returns a copy of an area of the given tile, as a series of rows (w * h in length).
+	byte[] region(int tile, int x, int y, int w, int h);
+
+	// copies an entire tile's worth of data into the given tile
+	void write(int tile, byte[] data);
+
+	// copies length bytes from data (starting at offset) into the tile, starting at index
+	void write(int tile, int index, byte[] data, int offset, int length);
+
+	// sets length pixels in the tile to the same color, starting at index
+	void fill(int tile, int index, int length, byte b);
+
+	// Returns the version of a tile, which changes every time the tile is written to. Used to recognize
+	// map data that has already been encoded into a packet without looking at the data itself.
+	long version(int tile);
+
+	// Frees any resources held by this storage. Storage cannot be used after it has been released.
+	void release();
+
+	enum Type {
+		HEAP, DIRECT;
+
+		public static Type fromName(String name) {
+			for (Type type : values()) {
+				if (type.name().equalsIgnoreCase(name))
+					return type;
+			}
+			return HEAP;
+		}
+
+		PixelStorage create(int tiles) {
+			switch (this) {
+				case DIRECT:
+					if (DirectPixelStorage.supported())
+						return new DirectPixelStorage(tiles);
+					// fall back to heap storage if we can't get at native memory
+				default:
+					return new HeapPixelStorage(tiles);
+			}
+		}
+	}
+}
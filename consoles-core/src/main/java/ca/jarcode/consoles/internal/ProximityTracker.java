@@ -0,0 +1,131 @@
+package ca.jarcode.consoles.internal;
+
+import ca.jarcode.consoles.Consoles;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import java.util.*;
+
+/*
+
+Tracks which consoles each player is in range of, and sends updates to players
+when they walk into range of a console.
+
+Consoles are indexed in every chunk that is within their view radius, so when a player
+moves to a new block we only have to check the consoles listed for the chunk they're in.
+This used to be a listener for every console, which meant that every step a player took
+was checked against every console on the server.
+
+Only accessed from the main thread.
+
+ */
+public class ProximityTracker implements Listener {
+
+	// squared distance a player has to be within to be sent updates for a console
+	private static final int VIEW_DISTANCE_SQUARED = 1280;
+	private static final int VIEW_DISTANCE = (int) Math.ceil(Math.sqrt(VIEW_DISTANCE_SQUARED));
+
+	private final ConsoleIndex<ConsoleRenderer> index = new ConsoleIndex<>(VIEW_DISTANCE);
+	// every console being tracked
+	private final Set<ConsoleRenderer> consoles = new HashSet<>();
+	// the consoles each player is currently in range of
+	private final HashMap<String, Set<ConsoleRenderer>> inside = new HashMap<>();
+
+	// players that are already in range are sent updates when the console is created
+	void add(ConsoleRenderer renderer) {
+		index.add(renderer);
+		consoles.add(renderer);
+		for (Player player : Bukkit.getOnlinePlayers()) {
+			Set<ConsoleRenderer> set = inside.get(player.getName());
+			if (set != null && inRange(renderer, player.getLocation()))
+				set.add(renderer);
+		}
+	}
+
+	void remove(ConsoleRenderer renderer) {
+		index.remove(renderer);
+		consoles.remove(renderer);
+		for (Set<ConsoleRenderer> set : inside.values()) {
+			set.remove(renderer);
+		}
+	}
+
+	// consoles that are in range of the given location
+	private Set<ConsoleRenderer> inRange(Location location) {
+		Set<ConsoleRenderer> set = new HashSet<>();
+		for (ConsoleRenderer renderer : index.near(location, 0)) {
+			if (inRange(renderer, location))
+				set.add(renderer);
+		}
+		return set;
+	}
+
+	private static boolean inRange(ConsoleRenderer renderer, Location location) {
+		return renderer.pos.getWorld() == location.getWorld()
+				&& renderer.pos.distanceSquared(location) <= VIEW_DISTANCE_SQUARED;
+	}
+
+	// update the painting for players that just entered the area
+	private void moved(Player player, Location to) {
+		Set<ConsoleRenderer> now = inRange(to);
+		Set<ConsoleRenderer> last = inside.put(player.getName(), now);
+		for (ConsoleRenderer renderer : now) {
+			if (last == null || !last.contains(renderer))
+				renderer.getPixelBuffer().updateFor(player, false, true);
+		}
+	}
+
+	@EventHandler
+	@SuppressWarnings("unused")
+	// We take the join events and update a player's paintings after
+	// This way, when a player moves within range of the console,
+	// this painting is updated for them (because they haven't had it rendered since they joined!)
+	public void onPlayerJoin(final PlayerJoinEvent e) {
+		// delay initial map packets
+		Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), () -> {
+			if (!e.getPlayer().isOnline())
+				return;
+			Set<ConsoleRenderer> now = inRange(e.getPlayer().getLocation());
+			inside.put(e.getPlayer().getName(), now);
+			for (ConsoleRenderer renderer : now) {
+				renderer.getPixelBuffer().updateFor(e.getPlayer(), true, true);
+			}
+		}, 10L);
+	}
+
+	@EventHandler
+	@SuppressWarnings("unused")
+	public void onPlayerQuit(PlayerQuitEvent e) {
+		inside.remove(e.getPlayer().getName());
+		// requests for the player are dropped first, so they can't paint anything after the player's data is released
+		ConsoleHandler.getInstance().getPainter().forget(e.getPlayer().getName());
+		for (ConsoleRenderer renderer : consoles) {
+			renderer.getPixelBuffer().onQuit(e.getPlayer().getName());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	@SuppressWarnings("unused")
+	public void onPlayerMove(PlayerMoveEvent e) {
+		Location from = e.getFrom(), to = e.getTo();
+		// nothing can change unless the player moved to another block
+		if (from.getWorld() == to.getWorld() && from.getBlockX() == to.getBlockX()
+				&& from.getBlockY() == to.getBlockY() && from.getBlockZ() == to.getBlockZ())
+			return;
+		moved(e.getPlayer(), to);
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	@SuppressWarnings("unused")
+	public void onPlayerTeleport(PlayerTeleportEvent e) {
+		moved(e.getPlayer(), e.getTo());
+	}
+}
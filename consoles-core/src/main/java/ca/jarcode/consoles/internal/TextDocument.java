@@ -0,0 +1,256 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+
+Text stored as a balanced tree of lines, used by the indexed text area and the editor.
+
+The editor used to keep files as one big string, and split the entire file into a list of
+lines (and join it back together) for every single key press. Here each line is a node in
+a treap ordered by line number, and every node knows how many lines and characters are
+under it, so finding, changing, adding or removing a line only has to walk down the tree.
+
+Documents aren't thread safe, they should only be changed and read from one thread (the
+components that use them only lay out the lines in the main thread).
+
+ */
+public class TextDocument {
+
+	private static class Node {
+		String line;
+		int priority;
+		Node left, right;
+		// amount of lines in this subtree, and the total length of those lines
+		int size, length;
+
+		Node(String line) {
+			this.line = line;
+			priority = ThreadLocalRandom.current().nextInt();
+			update();
+		}
+
+		void update() {
+			size = 1 + size(left) + size(right);
+			length = line.length() + length(left) + length(right);
+		}
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+	private static int length(Node node) {
+		return node == null ? 0 : node.length;
+	}
+
+	// joins two trees, every line in the first tree comes before the lines in the second
+	private static Node merge(Node a, Node b) {
+		if (a == null) return b;
+		if (b == null) return a;
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			a.update();
+			return a;
+		}
+		else {
+			b.left = merge(a, b.left);
+			b.update();
+			return b;
+		}
+	}
+
+	// splits a tree into the first 'count' lines, and the rest of the lines
+	private static Node[] split(Node node, int count) {
+		if (node == null)
+			return new Node[2];
+		if (size(node.left) >= count) {
+			Node[] result = split(node.left, count);
+			node.left = result[1];
+			node.update();
+			result[1] = node;
+			return result;
+		}
+		else {
+			Node[] result = split(node.right, count - size(node.left) - 1);
+			node.right = result[0];
+			node.update();
+			result[0] = node;
+			return result;
+		}
+	}
+
+	// builds a balanced tree out of a range of lines
+	private static Node build(List<String> lines, int from, int to) {
+		if (from >= to)
+			return null;
+		int mid = (from + to) >>> 1;
+		Node node = new Node(lines.get(mid));
+		node.left = build(lines, from, mid);
+		node.right = build(lines, mid + 1, to);
+		heapify(node);
+		node.update();
+		return node;
+	}
+
+	// moves the highest priority to the top of the tree, so the tree stays a valid treap
+	private static void heapify(Node node) {
+		Node max = node;
+		if (node.left != null && node.left.priority > max.priority)
+			max = node.left;
+		if (node.right != null && node.right.priority > max.priority)
+			max = node.right;
+		if (max != node) {
+			int priority = node.priority;
+			node.priority = max.priority;
+			max.priority = priority;
+			heapify(max);
+		}
+	}
+
+	private Node root;
+
+	public TextDocument(String text) {
+		List<String> lines = new ArrayList<>();
+		int last = 0;
+		for (int t = 0; t < text.length(); t++) {
+			if (text.charAt(t) == '\n') {
+				lines.add(text.substring(last, t));
+				last = t + 1;
+			}
+		}
+		lines.add(text.substring(last));
+		root = build(lines, 0, lines.size());
+	}
+
+	public int getLineCount() {
+		return size(root);
+	}
+	// amount of characters in the document, including line breaks
+	public int getLength() {
+		return root == null ? 0 : root.length + root.size - 1;
+	}
+
+	private Node node(int index) {
+		if (index < 0 || index >= size(root))
+			throw new IndexOutOfBoundsException("line " + index + ", lines: " + size(root));
+		Node node = root;
+		while (true) {
+			int left = size(node.left);
+			if (index < left)
+				node = node.left;
+			else if (index == left)
+				return node;
+			else {
+				index -= left + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	// lines are indexed from zero
+	public String getLine(int index) {
+		return node(index).line;
+	}
+
+	// the index of the first character of a line in the entire document
+	public int offsetOf(int index) {
+		if (index < 0 || index > size(root))
+			throw new IndexOutOfBoundsException("line " + index + ", lines: " + size(root));
+		int offset = 0;
+		Node node = root;
+		while (node != null) {
+			int left = size(node.left);
+			if (index <= left)
+				node = node.left;
+			else {
+				// every line before this one, plus their line breaks
+				offset += length(node.left) + node.line.length() + left + 1;
+				index -= left + 1;
+				node = node.right;
+			}
+		}
+		return offset;
+	}
+
+	// replaces a line, the text should not contain any line breaks
+	public void setLine(int index, String text) {
+		if (index < 0 || index >= size(root))
+			throw new IndexOutOfBoundsException("line " + index + ", lines: " + size(root));
+		setLine(root, index, text);
+	}
+	private static void setLine(Node node, int index, String text) {
+		int left = size(node.left);
+		if (index < left)
+			setLine(node.left, index, text);
+		else if (index > left)
+			setLine(node.right, index - left - 1, text);
+		else
+			node.line = text;
+		node.update();
+	}
+
+	// adds a line before the line at the given index (or at the end, if the index is the amount of lines)
+	public void insertLine(int index, String text) {
+		if (index < 0 || index > size(root))
+			throw new IndexOutOfBoundsException("line " + index + ", lines: " + size(root));
+		Node[] halves = split(root, index);
+		root = merge(merge(halves[0], new Node(text)), halves[1]);
+	}
+
+	public void removeLine(int index) {
+		if (index < 0 || index >= size(root))
+			throw new IndexOutOfBoundsException("line " + index + ", lines: " + size(root));
+		Node[] halves = split(root, index);
+		Node[] rest = split(halves[1], 1);
+		root = merge(halves[0], rest[1]);
+	}
+
+	// inserts text at a position in a line, the text can contain line breaks
+	public void insert(int index, int column, String text) {
+		String line = getLine(index);
+		String before = line.substring(0, column), after = line.substring(column);
+		int first = text.indexOf('\n');
+		if (first == -1) {
+			setLine(index, before + text + after);
+			return;
+		}
+		setLine(index, before + text.substring(0, first));
+		int last = first + 1;
+		for (int t = last; t < text.length(); t++) {
+			if (text.charAt(t) == '\n') {
+				insertLine(++index, text.substring(last, t));
+				last = t + 1;
+			}
+		}
+		insertLine(index + 1, text.substring(last) + after);
+	}
+
+	// copies a range of lines, stopping at the end of the document
+	public List<String> lines(int from, int to) {
+		List<String> list = new ArrayList<>();
+		to = Math.min(to, size(root));
+		for (int t = Math.max(from, 0); t < to; t++) {
+			list.add(getLine(t));
+		}
+		return list;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(getLength() + 1);
+		append(root, builder);
+		// every line is followed by a line break, except the last one
+		if (builder.length() > 0)
+			builder.setLength(builder.length() - 1);
+		return builder.toString();
+	}
+	private static void append(Node node, StringBuilder builder) {
+		if (node == null)
+			return;
+		append(node.left, builder);
+		builder.append(node.line).append('\n');
+		append(node.right, builder);
+	}
+}
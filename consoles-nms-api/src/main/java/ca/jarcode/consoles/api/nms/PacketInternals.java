@@ -9,4 +9,9 @@ public interface PacketInternals {
 	void registerMapPacket(Object packet);
 	ClientConnection getConnection(Player player);
 	Object createMapPacket(byte[] data, int id);
+	// Sends a map packet, reusing the encoded packet if the same contents were sent to someone else.
+	// The version identifies the contents of the map, and changes whenever the map does.
+	void sendMapPacket(ClientConnection connection, byte[] data, long version, int id, int x, int y, int width, int height);
+	// releases every encoded map packet that is being kept around for reuse
+	void clearMapPackets();
 }
@@ -1,6 +1,7 @@
 package ca.jarcode.consoles.v1_8_R2;
 
 import ca.jarcode.consoles.api.nms.ClientConnection;
+import io.netty.buffer.ByteBuf;
 import net.minecraft.server.v1_8_R2.Packet;
 import net.minecraft.server.v1_8_R2.PlayerConnection;
 import org.bukkit.craftbukkit.v1_8_R2.entity.CraftPlayer;
@@ -18,4 +19,10 @@ public class ConnectionWrapper implements ClientConnection {
 	public void sendPacket(Object packet) {
 		handle.sendPacket((Packet) packet);
 	}
+
+	// writes a packet that has already been encoded, skipping the packet encoder
+	public void sendEncoded(ByteBuf buf) {
+		// the netty channel is obfuscated as 'k' in this version
+		handle.networkManager.k.writeAndFlush(buf);
+	}
 }
@@ -2,17 +2,24 @@ package ca.jarcode.consoles.v1_8_R3;
 
 import ca.jarcode.consoles.api.nms.ClientConnection;
 import ca.jarcode.consoles.api.nms.PacketInternals;
+import com.google.common.collect.MapMaker;
 import net.minecraft.server.v1_8_R3.Packet;
 import net.minecraft.server.v1_8_R3.PacketPlayOutEntityMetadata;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMap;
 import org.bukkit.entity.Player;
 
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
 
 public class InternalPacketManager implements PacketInternals {
 
-	private List<Packet> packets = new CopyOnWriteArrayList<>();
+	// map packets we've created, compared by identity and weakly referenced so that
+	// packets which are never sent don't stick around
+	private Set<Packet> packets = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+	// encoded map packets, shared between players
+	private MapPacketCache cache = new MapPacketCache();
 
 	@Override
 	public void registerMetadataPacketTranslator(Player player) {
@@ -42,4 +49,21 @@ public class InternalPacketManager implements PacketInternals {
 	public Object createMapPacket(byte[] data, int id) {
 		return PacketFunctions.createUpdatePacket(data, id, packets);
 	}
+
+	@Override
+	public void sendMapPacket(ClientConnection connection, byte[] data, long version, int id,
+	                          int x, int y, int width, int height) {
+		if (data == null) return;
+		try {
+			((ConnectionWrapper) connection).sendEncoded(cache.get(data, version, id, x, y, width, height));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void clearMapPackets() {
+		cache.clear();
+	}
 }
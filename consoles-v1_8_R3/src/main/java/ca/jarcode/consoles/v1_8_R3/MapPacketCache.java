@@ -0,0 +1,101 @@
+package ca.jarcode.consoles.v1_8_R3;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.server.v1_8_R3.EnumProtocol;
+import net.minecraft.server.v1_8_R3.EnumProtocolDirection;
+import net.minecraft.server.v1_8_R3.PacketDataSerializer;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMap;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/*
+
+Cache of map packets that have already been serialized.
+
+When a lot of players are looking at the same console, they are all sent the exact
+same map data. Instead of having netty encode a new packet for every player, we encode
+the packet once and write (a duplicate of) the same buffer to every player's channel.
+
+Packets are looked up by the version of the tile their data came from (which changes
+every time the tile is painted), so the map data itself never has to be hashed or
+compared. Compression still happens for every player, in their own pipeline.
+
+The buffers are written past the packet encoder, since they already contain the packet
+id and body. They still go through compression, encryption and the length prepender.
+
+ */
+public class MapPacketCache {
+
+	// maximum amount of encoded packets kept around, each one is at most ~16KB
+	private static final int MAX_ENTRIES = 256;
+
+	private final LinkedHashMap<Key, ByteBuf> cache = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true);
+
+	// Returns an encoded map packet with the given contents, where the version identifies the contents
+	// of the entire map. The returned buffer is retained for the caller, so it must either be written
+	// to a channel or released.
+	public ByteBuf get(byte[] data, long version, int id, int x, int y, int width, int height) throws IOException {
+		Key key = new Key(version, id, x, y, width, height);
+		synchronized (cache) {
+			ByteBuf buf = cache.get(key);
+			if (buf == null) {
+				buf = encode(PacketFunctions.writeMapPacket(new PacketPlayOutMap(), data, id, x, y, width, height));
+				cache.put(key, buf);
+				if (cache.size() > MAX_ENTRIES) {
+					Iterator<ByteBuf> it = cache.values().iterator();
+					it.next().release();
+					it.remove();
+				}
+			}
+			// duplicates share the reference count of the cached buffer,
+			// but have their own reader index for each channel.
+			return buf.duplicate().retain();
+		}
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.values().forEach(ByteBuf::release);
+			cache.clear();
+		}
+	}
+
+	// this does the same thing the packet encoder in the pipeline does
+	private static ByteBuf encode(PacketPlayOutMap packet) throws IOException {
+		ByteBuf buf = Unpooled.buffer();
+		PacketDataSerializer serializer = new PacketDataSerializer(buf);
+		serializer.b(EnumProtocol.PLAY.a(EnumProtocolDirection.CLIENTBOUND, packet));
+		packet.b(serializer);
+		return buf;
+	}
+
+	private static class Key {
+		final long version;
+		final int id, x, y, width, height;
+		Key(long version, int id, int x, int y, int width, int height) {
+			this.version = version;
+			this.id = id;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) return false;
+			Key key = (Key) other;
+			return key.version == version && key.id == id && key.x == x && key.y == y
+					&& key.width == width && key.height == height;
+		}
+		@Override
+		public int hashCode() {
+			int result = (int) (version ^ (version >>> 32));
+			result = 31 * result + id;
+			result = 31 * result + ((x << 24) | (y << 16) | (width << 8) | height);
+			return result;
+		}
+	}
+}
@@ -11,6 +11,7 @@ import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
 
 /**
@@ -25,6 +26,8 @@ public class PacketFunctions {
 	// we ignore a decent amount of fields for map packets there because we can leave them as their defaults (0).
 	private static final Field MAP_ID;
 	private static final Field MAP_ICONS;
+	private static final Field MAP_X;
+	private static final Field MAP_Y;
 	private static final Field MAP_WIDTH;
 	private static final Field MAP_HEIGHT;
 	private static final Field MAP_DATA;
@@ -34,11 +37,15 @@ public class PacketFunctions {
 			// set up fields that we access when creating new packets
 			MAP_ID = PacketPlayOutMap.class.getDeclaredField("a");
 			MAP_ICONS = PacketPlayOutMap.class.getDeclaredField("c");
+			MAP_X = PacketPlayOutMap.class.getDeclaredField("d");
+			MAP_Y = PacketPlayOutMap.class.getDeclaredField("e");
 			MAP_WIDTH = PacketPlayOutMap.class.getDeclaredField("f");
 			MAP_HEIGHT = PacketPlayOutMap.class.getDeclaredField("g");
 			MAP_DATA = PacketPlayOutMap.class.getDeclaredField("h");
 			MAP_ID.setAccessible(true);
 			MAP_ICONS.setAccessible(true);
+			MAP_X.setAccessible(true);
+			MAP_Y.setAccessible(true);
 			MAP_WIDTH.setAccessible(true);
 			MAP_HEIGHT.setAccessible(true);
 			MAP_DATA.setAccessible(true);
@@ -51,19 +58,33 @@ public class PacketFunctions {
 	// faster way of creating maps
 	// we avoid copying a buffer when creating the packet using reflection,
 	// so we can use the pixel buffer's sections directly.
-	public static PacketPlayOutMap createUpdatePacket(byte[] data, int id, List<Packet> packets) {
+	public static PacketPlayOutMap createUpdatePacket(byte[] data, int id, Set<Packet> packets) {
+		return createUpdatePacket(data, id, 0, 0, 128, 128, packets);
+	}
+
+	// creates a packet that only updates part of a map. The data is a series of rows for
+	// the given area, so it has to be exactly (width * height) in length.
+	public static PacketPlayOutMap createUpdatePacket(byte[] data, int id, int x, int y, int width, int height,
+	                                                  Set<Packet> packets) {
 		if (data == null) return null;
-		PacketPlayOutMap map = newMapPacket(packets);
+		return writeMapPacket(newMapPacket(packets), data, id, x, y, width, height);
+	}
+
+	// sets up the fields in a map packet
+	public static PacketPlayOutMap writeMapPacket(PacketPlayOutMap map, byte[] data, int id, int x, int y,
+	                                              int width, int height) {
 		try {
 			// map damage value
 			MAP_ID.set(map, id);
 			// initialize the icon array in the packet with an empty array
 			// we don't use any map icons, so this is fine to do.
 			MAP_ICONS.set(map, new MapIcon[0]);
-			// we always send packets that update the entire map area,
-			// so the dimensions are always 128x128
-			MAP_WIDTH.set(map, 128);
-			MAP_HEIGHT.set(map, 128);
+			// the area of the map to update. The client will only replace pixels in
+			// this area, so small changes don't have to send the entire map.
+			MAP_X.set(map, x);
+			MAP_Y.set(map, y);
+			MAP_WIDTH.set(map, width);
+			MAP_HEIGHT.set(map, height);
 			// pass through the byte array directly
 			// this avoids a considerable amount of overhead from sending packets
 			MAP_DATA.set(map, data);
@@ -95,17 +116,13 @@ public class PacketFunctions {
 
 	// Most packets should be blocked by our fake map items and trackers, so this
 	// won't do much in normal servers.
-	public static boolean handleMapPacket(PacketPlayOutMap packet, List<Packet> packets) {
-		if (packets.contains(packet)) {
-			packets.remove(packet);
-			return true;
-		}
-		else return false;
+	public static boolean handleMapPacket(PacketPlayOutMap packet, Set<Packet> packets) {
+		return packets.remove(packet);
 	}
 
 
 
-	public static PacketPlayOutMap newMapPacket(List<Packet> packets) {
+	public static PacketPlayOutMap newMapPacket(Set<Packet> packets) {
 		PacketPlayOutMap packet = new PacketPlayOutMap();
 		packets.add(packet);
 		return packet;